@@ -0,0 +1,138 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.script.ognl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput benchmarks of {@link OgnlEngine#evaluate(String, Map)} and its typed variants.
+ * <p>
+ * Run with {@code mvn -Pbenchmark test-compile exec:exec}.
+ * The thread count and profilers are set by the {@code jmh.threads} and {@code jmh.args} properties.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OgnlEngineBenchmark {
+
+    @Param({ "5", "50" })
+    public int paramSize;
+
+    private OgnlEngine ognlEngine;
+
+    private Map<String, Object> paramMap;
+
+    @Setup
+    public void setup() {
+        ognlEngine = new OgnlEngine();
+        ognlEngine.containerSupplier = StubContainer::new;
+
+        paramMap = new HashMap<>();
+        for (int i = 0; i < paramSize; i++) {
+            paramMap.put("field" + i, "value" + i);
+        }
+        paramMap.put("title", "Fess Search Server");
+        paramMap.put("score", 42);
+        final List<Integer> numbers = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            numbers.add(i);
+        }
+        paramMap.put("numbers", numbers);
+    }
+
+    @Benchmark
+    public Object literal() {
+        return ognlEngine.evaluate("'true'", paramMap);
+    }
+
+    @Benchmark
+    public Object variable() {
+        return ognlEngine.evaluate("title", paramMap);
+    }
+
+    @Benchmark
+    public Object arithmetic() {
+        return ognlEngine.evaluate("score * 2 + 1", paramMap);
+    }
+
+    @Benchmark
+    public double arithmeticAsDouble() {
+        return ognlEngine.evaluateAsDouble("score * 2 + 1", paramMap, 0);
+    }
+
+    @Benchmark
+    public Object condition() {
+        return ognlEngine.evaluate("score >= 40 && score < 60", paramMap);
+    }
+
+    @Benchmark
+    public boolean conditionAsBoolean() {
+        return ognlEngine.evaluateAsBoolean("score >= 40 && score < 60", paramMap);
+    }
+
+    @Benchmark
+    public String variableAsString() {
+        return ognlEngine.evaluateAsString("title", paramMap);
+    }
+
+    @Benchmark
+    public Object methodCall() {
+        return ognlEngine.evaluate("title.toUpperCase()", paramMap);
+    }
+
+    @Benchmark
+    public Object projection() {
+        return ognlEngine.evaluate("numbers.{#this * 2}", paramMap);
+    }
+
+    @Benchmark
+    public Object selection() {
+        return ognlEngine.evaluate("numbers.{? #this >= 90}", paramMap);
+    }
+
+    @Benchmark
+    public Object containerAccess() {
+        return ognlEngine.evaluate("container.getComponent('systemHelper')", paramMap);
+    }
+
+    /**
+     * Stand-in for the DI container, so the benchmark does not depend on a booted Fess.
+     */
+    public static class StubContainer {
+        public Object getComponent(final String name) {
+            return name;
+        }
+    }
+}
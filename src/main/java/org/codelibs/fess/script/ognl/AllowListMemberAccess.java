@@ -0,0 +1,175 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.script.ognl;
+
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Member access policy that only allows members of configured classes and packages.
+ * <p>
+ * A member is accessible when it is public and its declaring class is allowed. An instance method
+ * declared elsewhere is also accessible when an allowed supertype of its declaring class has a public
+ * method with the same signature, so that {@code List.size()} covers every list implementation.
+ * The public methods of {@code Object} are accessible on every object, except {@code getClass()},
+ * {@code wait()} and {@code notify()}, even when {@code java.lang.Object} is added to the allowed classes.
+ * Members of classes that give access to the class loader, threads or processes are never accessible.
+ * <p>
+ * Each member is checked once, and the decision is kept in a table that later accesses look up.
+ */
+class AllowListMemberAccess extends ScriptMemberAccess {
+
+    /** The classes allowed in addition to the configured ones. */
+    static final Set<String> DEFAULT_ALLOWED_CLASSES = Set.of("java.lang.String", "java.lang.StringBuilder",
+            "java.lang.CharSequence", "java.lang.Comparable", "java.lang.Iterable", "java.lang.Math", "java.lang.StrictMath",
+            "java.lang.Number", "java.lang.Integer", "java.lang.Long", "java.lang.Short", "java.lang.Byte", "java.lang.Double",
+            "java.lang.Float", "java.lang.Boolean", "java.lang.Character", "java.util.Collection", "java.util.List", "java.util.Set",
+            "java.util.Map", "java.util.Map$Entry", "java.util.Iterator", "java.util.ArrayList", "java.util.HashMap",
+            "java.util.LinkedHashMap", "java.util.HashSet", "java.util.LinkedHashSet", "java.util.Arrays", "java.util.Collections",
+            "java.util.Objects");
+
+    private static final Set<Class<?>> DENIED_CLASSES = Set.of(Class.class, ClassLoader.class, Thread.class, ThreadGroup.class,
+            Runtime.class, Process.class, ProcessBuilder.class, System.class);
+
+    private static final Set<String> DENIED_PACKAGES = Set.of("java.lang.reflect", "java.lang.invoke");
+
+    private static final Set<String> DENIED_OBJECT_METHODS = Set.of("getClass", "wait", "notify", "notifyAll");
+
+    private final Set<String> allowedClassNames;
+
+    private final Set<String> allowedPackageNames;
+
+    private final Map<Member, Boolean> decisionMap = new ConcurrentHashMap<>();
+
+    private final Map<Class<?>, Boolean> classDecisionMap = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a policy allowing the default classes and the given ones.
+     *
+     * @param allowedClassNames the names of the allowed classes, as returned by {@link Class#getName()}
+     * @param allowedPackageNames the names of the allowed packages, including their subpackages
+     */
+    AllowListMemberAccess(final Collection<String> allowedClassNames, final Collection<String> allowedPackageNames) {
+        this.allowedClassNames = new HashSet<>(DEFAULT_ALLOWED_CLASSES);
+        this.allowedClassNames.addAll(allowedClassNames);
+        this.allowedPackageNames = Set.copyOf(allowedPackageNames);
+    }
+
+    @Override
+    protected boolean isPermitted(final Object target, final Member member) {
+        final Boolean decision = decisionMap.get(member);
+        if (decision != null) {
+            return decision;
+        }
+        return decisionMap.computeIfAbsent(member, this::decide);
+    }
+
+    private boolean decide(final Member member) {
+        if (!Modifier.isPublic(member.getModifiers())) {
+            return false;
+        }
+        final Class<?> declaringClass = member.getDeclaringClass();
+        if (declaringClass == Object.class) {
+            // Object is never an allowed class, so that allowing it cannot expose getClass() or the monitor methods
+            return isAllowedObjectMethod(member);
+        }
+        if (isAllowedClass(declaringClass)) {
+            return true;
+        }
+        if (!(member instanceof Method) || Modifier.isStatic(member.getModifiers()) || isDeniedClass(declaringClass)) {
+            return false;
+        }
+        final Method method = (Method) member;
+        final Deque<Class<?>> queue = new ArrayDeque<>();
+        final Set<Class<?>> visited = new HashSet<>();
+        queue.add(declaringClass);
+        while (!queue.isEmpty()) {
+            final Class<?> type = queue.poll();
+            if (!visited.add(type)) {
+                continue;
+            }
+            if (type != declaringClass && (type == Object.class ? isAllowedObjectMethod(method) : isAllowedClass(type))
+                    && declaresPublicMethod(type, method)) {
+                return true;
+            }
+            if (type.getSuperclass() != null) {
+                queue.add(type.getSuperclass());
+            }
+            for (final Class<?> iface : type.getInterfaces()) {
+                queue.add(iface);
+            }
+        }
+        return false;
+    }
+
+    private static boolean isAllowedObjectMethod(final Member member) {
+        return !DENIED_OBJECT_METHODS.contains(member.getName());
+    }
+
+    private static boolean declaresPublicMethod(final Class<?> type, final Method method) {
+        try {
+            return Modifier.isPublic(type.getMethod(method.getName(), method.getParameterTypes()).getModifiers());
+        } catch (final NoSuchMethodException | SecurityException e) {
+            return false;
+        }
+    }
+
+    private boolean isAllowedClass(final Class<?> type) {
+        final Boolean decision = classDecisionMap.get(type);
+        if (decision != null) {
+            return decision;
+        }
+        return classDecisionMap.computeIfAbsent(type, t -> {
+            if (t == Object.class || isDeniedClass(t)) {
+                return false;
+            }
+            if (allowedClassNames.contains(t.getName())) {
+                return true;
+            }
+            for (String packageName = t.getPackageName(); !packageName.isEmpty(); packageName = parentPackage(packageName)) {
+                if (allowedPackageNames.contains(packageName)) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    private static boolean isDeniedClass(final Class<?> type) {
+        if (DENIED_CLASSES.contains(type)) {
+            return true;
+        }
+        for (String packageName = type.getPackageName(); !packageName.isEmpty(); packageName = parentPackage(packageName)) {
+            if (DENIED_PACKAGES.contains(packageName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String parentPackage(final String packageName) {
+        final int index = packageName.lastIndexOf('.');
+        return index < 0 ? "" : packageName.substring(0, index);
+    }
+}
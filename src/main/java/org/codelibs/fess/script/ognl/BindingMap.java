@@ -0,0 +1,226 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.script.ognl;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Root map of an OGNL evaluation.
+ * <p>
+ * Reads go through to the caller's parameter map without copying it, and the {@code container}
+ * key resolves to the DI container, which is looked up only when a script reads it. Writes made by scripts are kept in a local overlay,
+ * so the caller's map is never modified.
+ * <p>
+ * {@link LazyValue} parameters are computed when first read and kept in the overlay for the rest of the evaluation.
+ */
+class BindingMap extends AbstractMap<String, Object> {
+
+    static final String CONTAINER_KEY = "container";
+
+    private static final Object REMOVED = new Object();
+
+    private final Map<String, Object> paramMap;
+
+    private final Supplier<?> containerSupplier;
+
+    private Map<String, Object> overlayMap;
+
+    BindingMap(final Map<String, Object> paramMap, final Supplier<?> containerSupplier) {
+        this.paramMap = Objects.requireNonNull(paramMap, "paramMap");
+        this.containerSupplier = containerSupplier;
+    }
+
+    /**
+     * Returns a copy of this map for an evaluation on another thread, such as a chunk of a parallel projection.
+     * <p>
+     * The copy reads the same parameters and starts with the values computed and written so far. Values it
+     * computes and writes afterwards are kept in the copy, so this map is only read while it is shared.
+     *
+     * @return the copy
+     */
+    BindingMap fork() {
+        final BindingMap map = new BindingMap(paramMap, containerSupplier);
+        if (overlayMap != null) {
+            map.overlayMap = new HashMap<>(overlayMap);
+        }
+        return map;
+    }
+
+    @Override
+    public Object get(final Object key) {
+        if (overlayMap != null) {
+            final Object value = overlayMap.get(key);
+            if (value != null || overlayMap.containsKey(key)) {
+                return value == REMOVED ? null : value;
+            }
+        }
+        if (CONTAINER_KEY.equals(key)) {
+            return containerSupplier.get();
+        }
+        final Object value = paramMap.get(key);
+        if (value instanceof LazyValue) {
+            final Object resolved = ((LazyValue) value).get();
+            if (overlayMap == null) {
+                overlayMap = new HashMap<>();
+            }
+            overlayMap.put((String) key, resolved);
+            return resolved;
+        }
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        if (overlayMap != null && overlayMap.containsKey(key)) {
+            return overlayMap.get(key) != REMOVED;
+        }
+        return CONTAINER_KEY.equals(key) || paramMap.containsKey(key);
+    }
+
+    @Override
+    public Object put(final String key, final Object value) {
+        final Object oldValue = get(key);
+        if (overlayMap == null) {
+            overlayMap = new HashMap<>();
+        }
+        overlayMap.put(key, value);
+        return oldValue;
+    }
+
+    @Override
+    public Object remove(final Object key) {
+        if (!(key instanceof String) || !containsKey(key)) {
+            return null;
+        }
+        final Object oldValue = get(key);
+        if (overlayMap == null) {
+            overlayMap = new HashMap<>();
+        }
+        overlayMap.put((String) key, REMOVED);
+        return oldValue;
+    }
+
+    @Override
+    public void clear() {
+        overlayMap = new HashMap<>();
+        for (final String key : paramMap.keySet()) {
+            overlayMap.put(key, REMOVED);
+        }
+        overlayMap.put(CONTAINER_KEY, REMOVED);
+    }
+
+    @Override
+    public int size() {
+        return keys().size();
+    }
+
+    /**
+     * Returns the entries of the map. Values are looked up when an entry is read, so listing the
+     * entries neither computes {@link LazyValue} parameters nor looks up the DI container.
+     */
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        final Set<String> keys = keys();
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                final Iterator<String> iterator = keys.iterator();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        return new BindingEntry(iterator.next());
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keys.size();
+            }
+        };
+    }
+
+    private Set<String> keys() {
+        final Set<String> keys = new LinkedHashSet<>(paramMap.keySet());
+        keys.add(CONTAINER_KEY);
+        if (overlayMap != null) {
+            overlayMap.forEach((k, v) -> {
+                if (v == REMOVED) {
+                    keys.remove(k);
+                } else {
+                    keys.add(k);
+                }
+            });
+        }
+        return keys;
+    }
+
+    private class BindingEntry implements Entry<String, Object> {
+
+        private final String key;
+
+        BindingEntry(final String key) {
+            this.key = key;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return get(key);
+        }
+
+        @Override
+        public Object setValue(final Object value) {
+            return put(key, value);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Entry)) {
+                return false;
+            }
+            final Entry<?, ?> entry = (Entry<?, ?>) obj;
+            return key.equals(entry.getKey()) && Objects.equals(getValue(), entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + getValue();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.script.ognl;
+
+import java.util.Collection;
+
+import ognl.ASTCtor;
+import ognl.ASTProject;
+import ognl.ASTSelect;
+import ognl.ASTSelectFirst;
+import ognl.ASTSelectLast;
+import ognl.Node;
+import ognl.OgnlContext;
+import ognl.OgnlException;
+import ognl.OgnlOps;
+import ognl.OgnlParserTreeConstants;
+import ognl.SimpleNode;
+
+/**
+ * Wraps a subexpression so that its evaluation is charged to the {@link EvaluationBudget} of the context.
+ * <p>
+ * The element expression of a projection or selection is charged one step per element, including
+ * the chunks of a {@link ParallelCollectionNode} and the stages of a {@link FusedPipelineNode}.
+ * The size of an array constructor, or its initializer list, is charged one step per element before the
+ * array is allocated. Constructors of other classes are charged one step by {@link ScriptMemberAccess},
+ * and their arguments, such as initial capacities, are not charged.
+ */
+class BudgetedNode extends SimpleNode {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean element;
+
+    private BudgetedNode(final Node node, final boolean element) {
+        super(OgnlParserTreeConstants.JJTEVAL);
+        this.element = element;
+        jjtAddChild(node, 0);
+        node.jjtSetParent(this);
+    }
+
+    /**
+     * Wraps the element expressions of projections and selections and the sizes of array constructors in the tree.
+     *
+     * @param node the parsed template
+     * @return the node to use in place of {@code node}
+     */
+    static Node instrument(final Node node) {
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            instrument(node.jjtGetChild(i));
+        }
+        if ((node instanceof ASTProject || node instanceof ASTSelect || node instanceof ASTSelectFirst || node instanceof ASTSelectLast)
+                && node.jjtGetNumChildren() == 1) {
+            wrap(node, true);
+        } else if (node instanceof ASTCtor && node.jjtGetNumChildren() == 1 && ExpressionNodes.isArrayConstructor(node)) {
+            wrap(node, false);
+        }
+        return node;
+    }
+
+    private static void wrap(final Node parent, final boolean element) {
+        final Node child = parent.jjtGetChild(0);
+        if (child instanceof BudgetedNode) {
+            return;
+        }
+        final BudgetedNode budgeted = new BudgetedNode(child, element);
+        parent.jjtAddChild(budgeted, 0);
+        budgeted.jjtSetParent(parent);
+    }
+
+    @Override
+    protected Object getValueBody(final OgnlContext context, final Object source) throws OgnlException {
+        final EvaluationBudget budget = (EvaluationBudget) context.get(EvaluationBudget.CONTEXT_KEY);
+        if (budget != null && element) {
+            budget.charge(1);
+        }
+        final Object value = jjtGetChild(0).getValue(context, source);
+        if (budget != null && !element) {
+            // sizes are converted the same way OGNL converts them when allocating the array
+            budget.charge(value instanceof Collection ? ((Collection<?>) value).size() : Math.max(0L, OgnlOps.longValue(value)));
+        }
+        return value;
+    }
+
+    @Override
+    protected void setValueBody(final OgnlContext context, final Object target, final Object value) throws OgnlException {
+        jjtGetChild(0).setValue(context, target, value);
+    }
+
+    @Override
+    public String toString() {
+        return jjtGetChild(0).toString();
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.script.ognl;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import ognl.ASTConst;
+import ognl.ASTProperty;
+import ognl.Node;
+import ognl.enhance.ExpressionAccessor;
+
+/**
+ * A parsed OGNL template held by {@link ExpressionCache}.
+ * <p>
+ * Templates that are a single literal or a single variable are classified as trivial when parsed,
+ * so they can be served without an OGNL context.
+ */
+class CachedExpression {
+
+    /** Names the OGNL map accessor resolves specially instead of looking them up in the map. */
+    static final Set<String> MAP_PSEUDO_PROPERTIES = Set.of("size", "isEmpty", "keys", "keySet", "values");
+
+    private final String template;
+
+    private final Node tree;
+
+    private volatile boolean referenced;
+
+    private final AtomicInteger evaluationCount = new AtomicInteger();
+
+    private final AtomicBoolean compilationStarted = new AtomicBoolean();
+
+    private volatile ExpressionAccessor accessor;
+
+    private final boolean constant;
+
+    private final Object constantValue;
+
+    private final String variableName;
+
+    private volatile boolean primitiveCompiled;
+
+    private volatile PrimitiveExpression primitiveExpression;
+
+    private volatile TemplateAnalysis analysis;
+
+    CachedExpression(final String template, final Node tree) {
+        this.template = template;
+        this.tree = tree;
+        if (tree instanceof ASTConst && isImmutable(((ASTConst) tree).getValue())) {
+            constant = true;
+            constantValue = ((ASTConst) tree).getValue();
+            variableName = null;
+        } else {
+            constant = false;
+            constantValue = null;
+            variableName = getVariableName(tree);
+        }
+    }
+
+    private static String getVariableName(final Node tree) {
+        if (!(tree instanceof ASTProperty) || ((ASTProperty) tree).isIndexedAccess() || tree.jjtGetNumChildren() != 1
+                || !(tree.jjtGetChild(0) instanceof ASTConst)) {
+            return null;
+        }
+        final Object name = ((ASTConst) tree.jjtGetChild(0)).getValue();
+        if (!(name instanceof String) || MAP_PSEUDO_PROPERTIES.contains(name)) {
+            return null;
+        }
+        return (String) name;
+    }
+
+    private static boolean isImmutable(final Object value) {
+        return value == null || value instanceof String || value instanceof Number || value instanceof Boolean
+                || value instanceof Character;
+    }
+
+    /**
+     * Returns whether the template is a literal or a single variable.
+     *
+     * @return {@code true} if {@link #getTrivialValue(Map, Supplier)} can be used
+     */
+    boolean isTrivial() {
+        return constant || variableName != null;
+    }
+
+    /**
+     * Returns the value of a trivial template without evaluating it through OGNL.
+     *
+     * @param paramMap the parameters
+     * @param containerSupplier the supplier of the DI container
+     * @return the literal, or the value of the variable
+     */
+    Object getTrivialValue(final Map<String, Object> paramMap, final Supplier<?> containerSupplier) {
+        if (constant) {
+            return constantValue;
+        }
+        if (BindingMap.CONTAINER_KEY.equals(variableName)) {
+            return containerSupplier.get();
+        }
+        return LazyValue.resolve(paramMap.get(variableName));
+    }
+
+    /**
+     * Returns the primitive form of the template, building it on first use.
+     *
+     * @return the primitive expression, or {@code null} if the template is not purely arithmetic or logical
+     */
+    PrimitiveExpression getPrimitiveExpression() {
+        if (!primitiveCompiled) {
+            primitiveExpression = tree == null ? null : PrimitiveExpression.compile(tree);
+            primitiveCompiled = true;
+        }
+        return primitiveExpression;
+    }
+
+    /**
+     * Returns what the template references, computing it on first use.
+     *
+     * @return the analysis
+     */
+    TemplateAnalysis getAnalysis() {
+        TemplateAnalysis result = analysis;
+        if (result == null) {
+            result = new TemplateAnalyzer().analyze(tree);
+            analysis = result;
+        }
+        return result;
+    }
+
+    String getTemplate() {
+        return template;
+    }
+
+    Node getTree() {
+        return tree;
+    }
+
+    /**
+     * Marks the expression as used since the eviction sweep last passed it. The flag is only
+     * written when it is not set yet, so lookups of hot templates do not write to shared memory.
+     */
+    void markReferenced() {
+        if (!referenced) {
+            referenced = true;
+        }
+    }
+
+    /**
+     * Clears the used mark.
+     *
+     * @return {@code true} if the expression was used since the last sweep
+     */
+    boolean clearReferenced() {
+        if (!referenced) {
+            return false;
+        }
+        referenced = false;
+        return true;
+    }
+
+    /**
+     * Counts an interpreted evaluation.
+     *
+     * @return the number of evaluations so far
+     */
+    int incrementEvaluationCount() {
+        return evaluationCount.incrementAndGet();
+    }
+
+    /**
+     * Claims the right to compile this expression.
+     *
+     * @return {@code true} only for the first caller
+     */
+    boolean startCompilation() {
+        return compilationStarted.compareAndSet(false, true);
+    }
+
+    boolean isCompilationStarted() {
+        return compilationStarted.get();
+    }
+
+    ExpressionAccessor getAccessor() {
+        return accessor;
+    }
+
+    void setAccessor(final ExpressionAccessor accessor) {
+        this.accessor = accessor;
+    }
+}
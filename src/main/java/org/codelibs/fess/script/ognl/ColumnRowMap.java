@@ -0,0 +1,77 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.script.ognl;
+
+import java.util.AbstractMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read-only view of one row of column-oriented parameters.
+ * <p>
+ * The same instance is moved from row to row, so no per-row map is built.
+ */
+class ColumnRowMap extends AbstractMap<String, Object> {
+
+    private final Map<String, ? extends List<?>> columns;
+
+    private final int rowCount;
+
+    private int row;
+
+    ColumnRowMap(final Map<String, ? extends List<?>> columns) {
+        this.columns = columns;
+        int size = -1;
+        for (final Map.Entry<String, ? extends List<?>> entry : columns.entrySet()) {
+            final int columnSize = entry.getValue().size();
+            if (size >= 0 && size != columnSize) {
+                throw new IllegalArgumentException("Column " + entry.getKey() + " has " + columnSize + " rows, expected " + size);
+            }
+            size = columnSize;
+        }
+        this.rowCount = Math.max(size, 0);
+    }
+
+    int getRowCount() {
+        return rowCount;
+    }
+
+    void setRow(final int row) {
+        this.row = row;
+    }
+
+    @Override
+    public Object get(final Object key) {
+        final List<?> column = columns.get(key);
+        return column == null ? null : column.get(row);
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return columns.containsKey(key);
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        final Map<String, Object> map = new LinkedHashMap<>();
+        for (final String key : columns.keySet()) {
+            map.put(key, get(key));
+        }
+        return map.entrySet();
+    }
+}
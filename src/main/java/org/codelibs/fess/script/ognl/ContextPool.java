@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.script.ognl;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+import ognl.OgnlContext;
+
+/**
+ * Small striped pool of reusable OGNL contexts.
+ * <p>
+ * Each thread is mapped to a slot by its id. A context is taken out of its slot while in use
+ * and cleared when it is returned, so a context is never shared between concurrent evaluations.
+ * The pool does not use thread locals, which keeps it bounded when running on virtual threads.
+ */
+class ContextPool {
+
+    private final AtomicReferenceArray<OgnlContext> slots;
+
+    private final int mask;
+
+    private final Supplier<OgnlContext> factory;
+
+    ContextPool(final int size, final Supplier<OgnlContext> factory) {
+        int capacity = 1;
+        while (capacity < size) {
+            capacity <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.factory = factory;
+    }
+
+    /**
+     * Takes a context from the pool, creating a new one if the slot of the current thread is empty.
+     *
+     * @return a context for exclusive use until it is released
+     */
+    OgnlContext acquire() {
+        final OgnlContext context = slots.getAndSet(slotIndex(), null);
+        if (context != null) {
+            return context;
+        }
+        return factory.get();
+    }
+
+    /**
+     * Clears the context and returns it to the pool.
+     *
+     * @param context the context obtained by {@link #acquire()}
+     */
+    void release(final OgnlContext context) {
+        context.clear();
+        slots.compareAndSet(slotIndex(), null, context);
+    }
+
+    private int slotIndex() {
+        final long id = Thread.currentThread().threadId();
+        return (int) (id ^ (id >>> 32)) & mask;
+    }
+}
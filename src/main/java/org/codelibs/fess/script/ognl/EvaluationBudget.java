@@ -0,0 +1,81 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.script.ognl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the time and the number of steps of a single evaluation.
+ * <p>
+ * The budget is stored in the OGNL context under {@link #CONTEXT_KEY} and charged by
+ * {@link ScriptMemberAccess} for every method call, constructor call and reflective property read, and
+ * by {@link BudgetedNode} for every projected or selected element and every element of an allocated array.
+ * It is shared by the chunks of a parallel projection, so steps are counted atomically.
+ */
+class EvaluationBudget {
+
+    /** The context key of the budget of the running evaluation. */
+    static final String CONTEXT_KEY = EvaluationBudget.class.getName();
+
+    private final long startTime;
+
+    private final long maxTimeNanos;
+
+    private final long maxSteps;
+
+    private final AtomicLong steps = new AtomicLong();
+
+    /**
+     * Creates a budget starting now.
+     *
+     * @param maxTimeMillis the maximum evaluation time in milliseconds; zero or less means unlimited
+     * @param maxSteps the maximum number of steps; zero or less means unlimited
+     */
+    EvaluationBudget(final long maxTimeMillis, final long maxSteps) {
+        this.startTime = System.nanoTime();
+        this.maxTimeNanos = maxTimeMillis > 0 ? maxTimeMillis * 1_000_000L : 0L;
+        this.maxSteps = maxSteps;
+    }
+
+    /**
+     * Charges one step.
+     *
+     * @throws EvaluationLimitException if the step or time limit is exceeded
+     */
+    void step() {
+        charge(1);
+    }
+
+    /**
+     * Charges a number of steps at once, such as the elements of an allocated array.
+     *
+     * @param amount the number of steps
+     * @throws EvaluationLimitException if the step or time limit is exceeded
+     */
+    void charge(final long amount) {
+        final long count = steps.addAndGet(amount);
+        if (maxSteps > 0 && count > maxSteps) {
+            throw new EvaluationLimitException("The script exceeded " + maxSteps + " steps.");
+        }
+        if (maxTimeNanos > 0 && System.nanoTime() - startTime > maxTimeNanos) {
+            throw new EvaluationLimitException("The script exceeded " + maxTimeNanos / 1_000_000L + " ms after " + count + " steps.");
+        }
+    }
+
+    long getSteps() {
+        return steps.get();
+    }
+}
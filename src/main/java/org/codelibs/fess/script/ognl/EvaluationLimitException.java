@@ -0,0 +1,56 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.script.ognl;
+
+/**
+ * Thrown when an evaluation runs out of its {@link EvaluationBudget} or overflows the stack.
+ */
+class EvaluationLimitException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    static final String STACK_OVERFLOW_MESSAGE = "The script overflowed the stack.";
+
+    EvaluationLimitException(final String message) {
+        super(message);
+    }
+
+    EvaluationLimitException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+
+    /**
+     * Finds a limit exception or a stack overflow in the cause chain, as OGNL wraps exceptions
+     * thrown by member access checks and invoked methods.
+     *
+     * @param t the exception thrown by the evaluation
+     * @return the limit exception, or {@code null} if there is none
+     */
+    static EvaluationLimitException find(final Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof EvaluationLimitException) {
+                return (EvaluationLimitException) cause;
+            }
+            if (cause instanceof StackOverflowError) {
+                return new EvaluationLimitException(STACK_OVERFLOW_MESSAGE, cause);
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return null;
+    }
+}
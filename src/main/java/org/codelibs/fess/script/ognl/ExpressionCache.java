@@ -0,0 +1,158 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.script.ognl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent, size-bounded cache of parsed OGNL templates.
+ * <p>
+ * Lookups are lock-free. When the number of entries exceeds the maximum size, entries are evicted
+ * with the CLOCK approximation of LRU: the sweep passes over entries in insertion order, gives a second
+ * chance to those used since it last passed them, and evicts the first one that was not used.
+ * A lookup only sets a flag that is usually already set, so hits do not contend on shared state.
+ */
+class ExpressionCache {
+
+    private final Map<String, CachedExpression> expressionMap = new ConcurrentHashMap<>();
+
+    private final Queue<CachedExpression> clock = new ConcurrentLinkedQueue<>();
+
+    private final int maxSize;
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private final LongAdder evictionCount = new LongAdder();
+
+    ExpressionCache(final int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cached expression for the template, or {@code null} if it is not cached.
+     * Misses are not counted here, as a template may be found elsewhere; see {@link #recordMiss()}.
+     *
+     * @param template the OGNL template
+     * @return the cached expression, or {@code null}
+     */
+    CachedExpression get(final String template) {
+        final CachedExpression expression = expressionMap.get(template);
+        if (expression == null) {
+            return null;
+        }
+        hitCount.increment();
+        expression.markReferenced();
+        return expression;
+    }
+
+    /**
+     * Adds the expression unless another thread has already cached the same template.
+     *
+     * @param expression the parsed expression
+     * @return the expression held by the cache
+     */
+    CachedExpression put(final CachedExpression expression) {
+        if (maxSize <= 0) {
+            return expression;
+        }
+        final CachedExpression existing = expressionMap.putIfAbsent(expression.getTemplate(), expression);
+        if (existing != null) {
+            return existing;
+        }
+        clock.offer(expression);
+        while (expressionMap.size() > maxSize && evict()) {
+            // evict until the cache fits
+        }
+        return expression;
+    }
+
+    /**
+     * Advances the clock hand until it evicts an entry not used since the hand last passed it.
+     * Each pass clears the used marks, so the sweep ends within two rounds.
+     *
+     * @return {@code false} if there was nothing to evict
+     */
+    private boolean evict() {
+        int remaining = 2 * expressionMap.size() + 1;
+        CachedExpression candidate;
+        while ((candidate = clock.poll()) != null) {
+            if (expressionMap.get(candidate.getTemplate()) != candidate) {
+                // already invalidated or replaced
+                continue;
+            }
+            if (candidate.clearReferenced() && --remaining > 0) {
+                clock.offer(candidate);
+                continue;
+            }
+            if (expressionMap.remove(candidate.getTemplate(), candidate)) {
+                evictionCount.increment();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Counts a lookup that had to parse the template.
+     */
+    void recordMiss() {
+        missCount.increment();
+    }
+
+    void invalidate(final String template) {
+        final CachedExpression expression = expressionMap.remove(template);
+        if (expression != null) {
+            clock.remove(expression);
+        }
+    }
+
+    void clear() {
+        expressionMap.clear();
+        clock.clear();
+    }
+
+    List<String> getTemplates() {
+        return new ArrayList<>(expressionMap.keySet());
+    }
+
+    int size() {
+        return expressionMap.size();
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    long getHitCount() {
+        return hitCount.sum();
+    }
+
+    long getMissCount() {
+        return missCount.sum();
+    }
+
+    long getEvictionCount() {
+        return evictionCount.sum();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.script.ognl;
+
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import ognl.ASTCtor;
+import ognl.ASTStaticField;
+import ognl.ASTStaticMethod;
+import ognl.Node;
+
+/**
+ * Helpers for inspecting parsed OGNL trees.
+ */
+final class ExpressionNodes {
+
+    private static final Pattern STATIC_MEMBER_PATTERN = Pattern.compile("^@([^@]+)@([\\w$]+)");
+
+    private static final Pattern CONSTRUCTOR_PATTERN = Pattern.compile("^new\\s+([\\w$.]+)");
+
+    private static final Pattern ARRAY_CONSTRUCTOR_PATTERN = Pattern.compile("^new\\s+[\\w$.]+\\s*\\[");
+
+    private ExpressionNodes() {
+    }
+
+    /**
+     * Visits the node and all of its descendants in depth-first order.
+     *
+     * @param node the root of the subtree
+     * @param visitor the visitor
+     */
+    static void walk(final Node node, final Consumer<Node> visitor) {
+        visitor.accept(node);
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            walk(node.jjtGetChild(i), visitor);
+        }
+    }
+
+    /**
+     * Returns the class name referenced by a static method, static field or constructor node.
+     *
+     * @param node the node
+     * @return the class name as written in the template, or {@code null} for other nodes
+     */
+    static String getClassName(final Node node) {
+        if (node instanceof ASTStaticMethod || node instanceof ASTStaticField) {
+            final Matcher matcher = STATIC_MEMBER_PATTERN.matcher(node.toString());
+            return matcher.find() ? matcher.group(1).trim() : null;
+        }
+        if (node instanceof ASTCtor) {
+            final Matcher matcher = CONSTRUCTOR_PATTERN.matcher(node.toString());
+            return matcher.find() ? matcher.group(1) : null;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the member name referenced by a static method or static field node.
+     *
+     * @param node the node
+     * @return the method or field name, or {@code null} for other nodes
+     */
+    static String getStaticMemberName(final Node node) {
+        if (node instanceof ASTStaticMethod || node instanceof ASTStaticField) {
+            final Matcher matcher = STATIC_MEMBER_PATTERN.matcher(node.toString());
+            return matcher.find() ? matcher.group(2) : null;
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether the node is an array constructor such as {@code new int[10]} or {@code new int[] {1, 2}}.
+     *
+     * @param node the node
+     * @return {@code true} if the node constructs an array
+     */
+    static boolean isArrayConstructor(final Node node) {
+        return node instanceof ASTCtor && ARRAY_CONSTRUCTOR_PATTERN.matcher(node.toString()).find();
+    }
+}
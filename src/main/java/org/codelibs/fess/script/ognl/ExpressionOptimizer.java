@@ -0,0 +1,254 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.script.ognl;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ognl.ASTAdd;
+import ognl.ASTAnd;
+import ognl.ASTBitAnd;
+import ognl.ASTBitNegate;
+import ognl.ASTBitOr;
+import ognl.ASTConst;
+import ognl.ASTDivide;
+import ognl.ASTEq;
+import ognl.ASTGreater;
+import ognl.ASTGreaterEq;
+import ognl.ASTLess;
+import ognl.ASTLessEq;
+import ognl.ASTMultiply;
+import ognl.ASTNegate;
+import ognl.ASTNot;
+import ognl.ASTNotEq;
+import ognl.ASTOr;
+import ognl.ASTRemainder;
+import ognl.ASTShiftLeft;
+import ognl.ASTShiftRight;
+import ognl.ASTStaticField;
+import ognl.ASTStaticMethod;
+import ognl.ASTSubtract;
+import ognl.ASTTest;
+import ognl.ASTUnsignedShiftRight;
+import ognl.ASTXor;
+import ognl.Node;
+import ognl.Ognl;
+import ognl.OgnlContext;
+import ognl.OgnlOps;
+import ognl.OgnlParserTreeConstants;
+import ognl.OgnlRuntime;
+
+/**
+ * Rewrites parsed OGNL trees so that each evaluation does less work.
+ * <p>
+ * Operators whose operands are all constants, listed pure static methods of {@code Math}, {@code String}
+ * and the boxed types called with constant arguments, and final static fields of those classes
+ * are evaluated once and replaced by constants. A conditional with a constant condition is replaced by the branch it selects,
+ * and leading constant operands of {@code +} are combined. Only immutable values are folded,
+ * and a subtree whose evaluation fails is left as is, so errors still surface at evaluation time.
+ */
+class ExpressionOptimizer {
+    private static final Logger logger = LogManager.getLogger(ExpressionOptimizer.class);
+
+    private static final Set<Class<?>> PURE_OPERATOR_TYPES = Set.of(ASTAdd.class, ASTSubtract.class, ASTMultiply.class, ASTDivide.class,
+            ASTRemainder.class, ASTNegate.class, ASTBitNegate.class, ASTNot.class, ASTBitAnd.class, ASTBitOr.class, ASTXor.class,
+            ASTShiftLeft.class, ASTShiftRight.class, ASTUnsignedShiftRight.class, ASTEq.class, ASTNotEq.class, ASTLess.class,
+            ASTLessEq.class, ASTGreater.class, ASTGreaterEq.class, ASTAnd.class, ASTOr.class, ASTTest.class);
+
+    private static final Set<String> PURE_MATH_METHODS = Set.of("abs", "absExact", "acos", "addExact", "asin", "atan", "atan2", "cbrt",
+            "ceil", "ceilDiv", "ceilDivExact", "ceilMod", "clamp", "copySign", "cos", "cosh", "decrementExact", "divideExact", "exp",
+            "expm1", "floor", "floorDiv", "floorDivExact", "floorMod", "fma", "getExponent", "hypot", "IEEEremainder", "incrementExact",
+            "log", "log10", "log1p", "max", "min", "multiplyExact", "multiplyFull", "multiplyHigh", "negateExact", "nextAfter", "nextDown",
+            "nextUp", "pow", "rint", "round", "scalb", "signum", "sin", "sinh", "sqrt", "subtractExact", "tan", "tanh", "toDegrees",
+            "toIntExact", "toRadians", "ulp", "unsignedMultiplyHigh");
+
+    private static final Set<String> PURE_INTEGRAL_METHODS = Set.of("bitCount", "compare", "compareUnsigned", "decode", "divideUnsigned",
+            "hashCode", "highestOneBit", "lowestOneBit", "max", "min", "numberOfLeadingZeros", "numberOfTrailingZeros", "parseByte",
+            "parseInt", "parseLong", "parseShort", "parseUnsignedInt", "parseUnsignedLong", "remainderUnsigned", "reverse", "reverseBytes",
+            "rotateLeft", "rotateRight", "signum", "sum", "toBinaryString", "toHexString", "toOctalString", "toString", "toUnsignedInt",
+            "toUnsignedLong", "toUnsignedString", "valueOf");
+
+    private static final Set<String> PURE_FLOATING_METHODS = Set.of("compare", "hashCode", "isFinite", "isInfinite", "isNaN", "max", "min",
+            "parseDouble", "parseFloat", "sum", "toHexString", "toString", "valueOf");
+
+    /**
+     * Static methods that depend only on their arguments. Methods reading global state, such as
+     * {@code Math.random}, {@code Integer.getInteger} or {@code String.format} with the default locale, are not listed.
+     */
+    private static final Map<Class<?>, Set<String>> PURE_STATIC_METHODS = Map.ofEntries(Map.entry(Math.class, PURE_MATH_METHODS),
+            Map.entry(StrictMath.class, PURE_MATH_METHODS), Map.entry(Integer.class, PURE_INTEGRAL_METHODS),
+            Map.entry(Long.class, PURE_INTEGRAL_METHODS), Map.entry(Short.class, PURE_INTEGRAL_METHODS),
+            Map.entry(Byte.class, PURE_INTEGRAL_METHODS), Map.entry(Double.class, PURE_FLOATING_METHODS),
+            Map.entry(Float.class, PURE_FLOATING_METHODS),
+            Map.entry(Boolean.class,
+                    Set.of("compare", "hashCode", "logicalAnd", "logicalOr", "logicalXor", "parseBoolean", "toString", "valueOf")),
+            Map.entry(Character.class,
+                    Set.of("compare", "digit", "forDigit", "getNumericValue", "hashCode", "isAlphabetic", "isDigit", "isLetter",
+                            "isLetterOrDigit", "isLowerCase", "isUpperCase", "isWhitespace", "toLowerCase", "toString",
+                            "toUpperCase", "valueOf")),
+            Map.entry(String.class, Set.of("copyValueOf", "join", "valueOf")));
+
+    private final OgnlContext context;
+
+    /**
+     * @param context the context used to evaluate constant subtrees
+     */
+    ExpressionOptimizer(final OgnlContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Optimizes the tree in place.
+     *
+     * @param node the root of the tree
+     * @return the optimized root, which may be a different node
+     */
+    Node optimize(final Node node) {
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            final Node child = node.jjtGetChild(i);
+            final Node optimized = optimize(child);
+            if (optimized != child) {
+                node.jjtAddChild(optimized, i);
+                optimized.jjtSetParent(node);
+            }
+        }
+        if (node instanceof ASTConst) {
+            return node;
+        }
+        if (node instanceof ASTTest && isConstant(node.jjtGetChild(0))) {
+            final boolean condition = OgnlOps.booleanValue(((ASTConst) node.jjtGetChild(0)).getValue());
+            return node.jjtGetChild(condition ? 1 : 2);
+        }
+        if (PURE_OPERATOR_TYPES.contains(node.getClass()) && hasConstantChildren(node, node.jjtGetNumChildren())) {
+            return fold(node);
+        }
+        if (node instanceof ASTAdd) {
+            return foldLeadingConstants(node);
+        }
+        if (node instanceof ASTStaticMethod && hasConstantChildren(node, node.jjtGetNumChildren()) && isPureStaticMember(node)) {
+            return fold(node);
+        }
+        if (node instanceof ASTStaticField && isPureStaticMember(node)) {
+            return fold(node);
+        }
+        return node;
+    }
+
+    private Node foldLeadingConstants(final Node node) {
+        int count = 0;
+        while (count < node.jjtGetNumChildren() && isConstant(node.jjtGetChild(count))) {
+            count++;
+        }
+        if (count < 2) {
+            return node;
+        }
+        Object value = ((ASTConst) node.jjtGetChild(0)).getValue();
+        try {
+            for (int i = 1; i < count; i++) {
+                value = OgnlOps.add(value, ((ASTConst) node.jjtGetChild(i)).getValue());
+            }
+        } catch (final RuntimeException e) {
+            return node;
+        }
+        if (!isImmutable(value)) {
+            return node;
+        }
+        final ASTAdd add = new ASTAdd(OgnlParserTreeConstants.JJTADD);
+        add.jjtSetParent(node.jjtGetParent());
+        final Node constant = createConstant(value);
+        add.jjtAddChild(constant, 0);
+        constant.jjtSetParent(add);
+        for (int i = count; i < node.jjtGetNumChildren(); i++) {
+            final Node child = node.jjtGetChild(i);
+            add.jjtAddChild(child, i - count + 1);
+            child.jjtSetParent(add);
+        }
+        return add;
+    }
+
+    private Node fold(final Node node) {
+        try {
+            final Object value = Ognl.getValue(node, context, Collections.emptyMap());
+            if (isImmutable(value)) {
+                final Node constant = createConstant(value);
+                constant.jjtSetParent(node.jjtGetParent());
+                return constant;
+            }
+        } catch (final Exception e) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Skipped folding of {}: {}", node, e.getMessage());
+            }
+        } finally {
+            context.clear();
+        }
+        return node;
+    }
+
+    private boolean isPureStaticMember(final Node node) {
+        final String className = ExpressionNodes.getClassName(node);
+        final String memberName = ExpressionNodes.getStaticMemberName(node);
+        if (className == null || memberName == null) {
+            return false;
+        }
+        try {
+            final Class<?> clazz = OgnlRuntime.classForName(context, className);
+            final Set<String> pureMethods = PURE_STATIC_METHODS.get(clazz);
+            if (pureMethods == null) {
+                return false;
+            }
+            if (node instanceof ASTStaticMethod) {
+                return pureMethods.contains(memberName);
+            }
+            final Field field = clazz.getField(memberName);
+            return Modifier.isFinal(field.getModifiers());
+        } catch (final Exception e) {
+            return false;
+        }
+    }
+
+    private static boolean hasConstantChildren(final Node node, final int count) {
+        for (int i = 0; i < count; i++) {
+            if (!isConstant(node.jjtGetChild(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isConstant(final Node node) {
+        return node instanceof ASTConst && isImmutable(((ASTConst) node).getValue());
+    }
+
+    private static boolean isImmutable(final Object value) {
+        return value == null || value instanceof String || value instanceof Boolean || value instanceof Character
+                || value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte
+                || value instanceof Double || value instanceof Float || value instanceof BigInteger || value instanceof BigDecimal;
+    }
+
+    private static Node createConstant(final Object value) {
+        final ASTConst constant = new ASTConst(OgnlParserTreeConstants.JJTCONST);
+        constant.setValue(value);
+        return constant;
+    }
+}
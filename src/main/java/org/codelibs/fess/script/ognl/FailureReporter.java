@@ -0,0 +1,165 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.script.ognl;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Rate-limited reporting of script failures.
+ * <p>
+ * The first failures of each template are logged with their stack trace. Later failures are only
+ * counted, and a one-line summary with the count is logged at most once per interval.
+ * Parameter maps are rendered with a bounded number of entries and truncated values.
+ * Reports are written to the logger of the engine, so existing logging configuration applies.
+ */
+class FailureReporter {
+    private static final String OTHER_TEMPLATES = "<other templates>";
+
+    private final Map<String, FailureState> failureStateMap = new ConcurrentHashMap<>();
+
+    private final Logger logger;
+
+    private final int logLimit;
+
+    private final long logInterval;
+
+    private final int maxTemplates;
+
+    private final int maxParamEntries;
+
+    private final int maxValueLength;
+
+    FailureReporter(final Logger logger, final int logLimit, final long logInterval, final int maxTemplates, final int maxParamEntries,
+            final int maxValueLength) {
+        this.logger = logger;
+        this.logLimit = logLimit;
+        this.logInterval = logInterval;
+        this.maxTemplates = maxTemplates;
+        this.maxParamEntries = maxParamEntries;
+        this.maxValueLength = maxValueLength;
+    }
+
+    /**
+     * Reports a failed evaluation.
+     *
+     * @param template the OGNL template
+     * @param paramMap the parameters of the evaluation, or {@code null}
+     * @param e the cause of the failure
+     */
+    void report(final String template, final Map<String, Object> paramMap, final Throwable e) {
+        final FailureState state = getFailureState(template);
+        final long count = state.failureCount.incrementAndGet();
+        if (!logger.isWarnEnabled()) {
+            return;
+        }
+        if (count <= logLimit) {
+            logger.warn("Failed to evaluate ognl script: {} => {}", template, render(paramMap), e);
+            return;
+        }
+        state.suppressedCount.incrementAndGet();
+        final long now = System.currentTimeMillis();
+        final long lastTime = state.lastLogTime.get();
+        if (now - lastTime >= logInterval && state.lastLogTime.compareAndSet(lastTime, now)) {
+            final long suppressed = state.suppressedCount.getAndSet(0L);
+            logger.warn("Failed to evaluate ognl script {} times since last report ({} in total): {} => {}", suppressed, count, template,
+                    e.toString());
+        }
+    }
+
+    private FailureState getFailureState(final String template) {
+        final FailureState state = failureStateMap.get(template);
+        if (state != null) {
+            return state;
+        }
+        if (failureStateMap.size() >= maxTemplates) {
+            return failureStateMap.computeIfAbsent(OTHER_TEMPLATES, k -> new FailureState());
+        }
+        return failureStateMap.computeIfAbsent(template, k -> new FailureState());
+    }
+
+    /**
+     * Returns the number of failures reported for the template.
+     *
+     * @param template the OGNL template
+     * @return the failure count
+     */
+    long getFailureCount(final String template) {
+        final FailureState state = failureStateMap.get(template);
+        return state == null ? 0L : state.failureCount.get();
+    }
+
+    void clear() {
+        failureStateMap.clear();
+    }
+
+    /**
+     * Renders the parameter map with a bounded number of entries and truncated values.
+     *
+     * @param paramMap the parameter map, or {@code null}
+     * @return the rendered map
+     */
+    String render(final Map<String, Object> paramMap) {
+        if (paramMap == null) {
+            return "-";
+        }
+        final StringBuilder buf = new StringBuilder(128).append('{');
+        final Iterator<Map.Entry<String, Object>> iterator = paramMap.entrySet().iterator();
+        int count = 0;
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Object> entry = iterator.next();
+            if (count >= maxParamEntries) {
+                buf.append(", ...(").append(paramMap.size() - count).append(" more)");
+                break;
+            }
+            if (count > 0) {
+                buf.append(", ");
+            }
+            buf.append(entry.getKey()).append('=');
+            final String value = toString(entry.getValue());
+            if (value.length() > maxValueLength) {
+                buf.append(value, 0, maxValueLength).append("...(").append(value.length()).append(" chars)");
+            } else {
+                buf.append(value);
+            }
+            count++;
+        }
+        return buf.append('}').toString();
+    }
+
+    private static String toString(final Object value) {
+        if (value instanceof LazyValue && !(value instanceof MemoizedLazyValue)) {
+            return "<lazy>";
+        }
+        try {
+            return String.valueOf(value);
+        } catch (final RuntimeException e) {
+            return "<" + e.getClass().getSimpleName() + ">";
+        }
+    }
+
+    private static class FailureState {
+        private final AtomicLong failureCount = new AtomicLong();
+
+        private final AtomicLong suppressedCount = new AtomicLong();
+
+        private final AtomicLong lastLogTime = new AtomicLong();
+    }
+}
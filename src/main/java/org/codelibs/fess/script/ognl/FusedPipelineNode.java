@@ -0,0 +1,298 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.script.ognl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import ognl.ASTChain;
+import ognl.ASTConst;
+import ognl.ASTIn;
+import ognl.ASTMethod;
+import ognl.ASTNotIn;
+import ognl.ASTProject;
+import ognl.ASTProperty;
+import ognl.ASTSelect;
+import ognl.Node;
+import ognl.OgnlContext;
+import ognl.OgnlException;
+import ognl.OgnlOps;
+import ognl.OgnlParserTreeConstants;
+import ognl.SimpleNode;
+
+/**
+ * Evaluates consecutive projections and selections of a chain element by element, instead of
+ * building an intermediate list at every stage.
+ * <p>
+ * A pipeline ends with one of these terminals:
+ * <ul>
+ * <li>a list of the remaining elements,</li>
+ * <li>a constant index such as {@code [0]}, which stops at that element,</li>
+ * <li>{@code size} or {@code size()}, which counts the remaining elements,</li>
+ * <li>{@code in} and {@code not in}, which stop at the first equal element.</li>
+ * </ul>
+ * Stages are applied to each element in turn, so side effects of projected expressions happen in
+ * element order rather than stage order, and elements after a short-circuiting terminal are not evaluated.
+ * Sources that are not collections are evaluated stage by stage as OGNL does.
+ */
+class FusedPipelineNode extends SimpleNode {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int LIST = 0;
+
+    private static final int INDEX = 1;
+
+    private static final int SIZE = 2;
+
+    private static final int CONTAINS = 3;
+
+    private final transient Node original;
+
+    private final transient Node[] stages;
+
+    private final transient Node terminalNode;
+
+    private final int terminal;
+
+    private final int index;
+
+    private final boolean negated;
+
+    private FusedPipelineNode(final Node original, final List<Node> stages, final Node terminalNode, final int terminal, final int index,
+            final boolean negated) {
+        super(original instanceof ASTChain ? OgnlParserTreeConstants.JJTCHAIN : OgnlParserTreeConstants.JJTIN);
+        this.original = original;
+        this.stages = stages.toArray(new Node[stages.size()]);
+        this.terminalNode = terminalNode;
+        this.terminal = terminal;
+        this.index = index;
+        this.negated = negated;
+        int i = 0;
+        for (final Node stage : stages) {
+            jjtAddChild(stage.jjtGetChild(0), i++);
+        }
+    }
+
+    /**
+     * Replaces the projection and selection chains in the tree by fused pipelines.
+     *
+     * @param node the parsed template
+     * @return the node to use in place of {@code node}
+     */
+    static Node fuse(final Node node) {
+        if ((node instanceof ASTIn || node instanceof ASTNotIn) && node.jjtGetNumChildren() == 2
+                && node.jjtGetChild(1) instanceof ASTChain) {
+            final Node membership = fuseMembership(node);
+            if (membership != null) {
+                return membership;
+            }
+        }
+        fuseChildren(node);
+        return node instanceof ASTChain ? fuseChain(node) : node;
+    }
+
+    private static void fuseChildren(final Node node) {
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            final Node child = node.jjtGetChild(i);
+            final Node replaced = fuse(child);
+            if (replaced != child) {
+                node.jjtAddChild(replaced, i);
+                replaced.jjtSetParent(node);
+            }
+        }
+    }
+
+    private static Node fuseChain(final Node chain) {
+        final int count = chain.jjtGetNumChildren();
+        final List<Node> children = new ArrayList<>();
+        children.add(chain.jjtGetChild(0));
+        boolean fused = false;
+        int i = 1;
+        while (i < count) {
+            if (!isStage(chain.jjtGetChild(i))) {
+                children.add(chain.jjtGetChild(i++));
+                continue;
+            }
+            final List<Node> stages = new ArrayList<>();
+            while (i < count && isStage(chain.jjtGetChild(i))) {
+                stages.add(chain.jjtGetChild(i++));
+            }
+            final Node terminalNode = i < count ? chain.jjtGetChild(i) : null;
+            final int index = getIndex(terminalNode);
+            final int terminal = index >= 0 ? INDEX : isSize(terminalNode) ? SIZE : LIST;
+            if (terminal == LIST && stages.size() < 2) {
+                children.addAll(stages);
+                continue;
+            }
+            if (terminal != LIST) {
+                i++;
+            }
+            children.add(new FusedPipelineNode(chain, stages, terminal == LIST ? null : terminalNode, terminal, index, false));
+            fused = true;
+        }
+        return fused ? newChain(children) : chain;
+    }
+
+    private static Node fuseMembership(final Node node) {
+        final Node chain = node.jjtGetChild(1);
+        int start = chain.jjtGetNumChildren();
+        while (start > 1 && isStage(chain.jjtGetChild(start - 1))) {
+            start--;
+        }
+        if (start == chain.jjtGetNumChildren()) {
+            return null;
+        }
+        final List<Node> prefix = new ArrayList<>();
+        final List<Node> stages = new ArrayList<>();
+        for (int i = 0; i < chain.jjtGetNumChildren(); i++) {
+            (i < start ? prefix : stages).add(chain.jjtGetChild(i));
+        }
+        for (final Node stage : stages) {
+            fuseChildren(stage);
+        }
+        final Node value = fuse(node.jjtGetChild(0));
+        final Node source = fuse(prefix.size() == 1 ? prefix.get(0) : newChain(prefix));
+        final FusedPipelineNode pipeline = new FusedPipelineNode(node, stages, null, CONTAINS, -1, node instanceof ASTNotIn);
+        pipeline.jjtAddChild(value, stages.size());
+        pipeline.jjtAddChild(source, stages.size() + 1);
+        value.jjtSetParent(pipeline);
+        source.jjtSetParent(pipeline);
+        return pipeline;
+    }
+
+    private static Node newChain(final List<Node> children) {
+        final ASTChain chain = new ASTChain(OgnlParserTreeConstants.JJTCHAIN);
+        for (int i = 0; i < children.size(); i++) {
+            chain.jjtAddChild(children.get(i), i);
+            children.get(i).jjtSetParent(chain);
+        }
+        return chain;
+    }
+
+    private static boolean isStage(final Node node) {
+        return (node instanceof ASTProject || node instanceof ASTSelect) && node.jjtGetNumChildren() == 1;
+    }
+
+    private static int getIndex(final Node node) {
+        if (node instanceof ASTProperty && ((ASTProperty) node).isIndexedAccess() && node.jjtGetNumChildren() == 1
+                && node.jjtGetChild(0) instanceof ASTConst) {
+            final Object value = ((ASTConst) node.jjtGetChild(0)).getValue();
+            if (value instanceof Integer && (Integer) value >= 0) {
+                return (Integer) value;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isSize(final Node node) {
+        if (node instanceof ASTMethod) {
+            return "size".equals(((ASTMethod) node).getMethodName()) && node.jjtGetNumChildren() == 0;
+        }
+        return node instanceof ASTProperty && !((ASTProperty) node).isIndexedAccess() && node.jjtGetNumChildren() == 1
+                && node.jjtGetChild(0) instanceof ASTConst && "size".equals(((ASTConst) node.jjtGetChild(0)).getValue());
+    }
+
+    /**
+     * Returns the number of stages. The first children of this node are the stage expressions.
+     *
+     * @return the number of stages
+     */
+    int getStageCount() {
+        return stages.length;
+    }
+
+    @Override
+    protected Object getValueBody(final OgnlContext context, final Object source) throws OgnlException {
+        if (terminal == CONTAINS) {
+            final Object value = jjtGetChild(stages.length).getValue(context, source);
+            final Object elements = jjtGetChild(stages.length + 1).getValue(context, source);
+            return negated != (Boolean) evaluate(context, elements, value);
+        }
+        return evaluate(context, source, null);
+    }
+
+    private Object evaluate(final OgnlContext context, final Object source, final Object target) throws OgnlException {
+        if (!(source instanceof Collection)) {
+            Object result = source;
+            for (final Node stage : stages) {
+                result = stage.getValue(context, result);
+            }
+            if (terminal == CONTAINS) {
+                return OgnlOps.in(target, result);
+            }
+            return terminalNode == null ? result : terminalNode.getValue(context, result);
+        }
+        final List<Object> list = terminal == LIST ? new ArrayList<>() : null;
+        int count = 0;
+        elements: for (final Object element : (Collection<?>) source) {
+            Object value = element;
+            for (int i = 0; i < stages.length; i++) {
+                final Object result = jjtGetChild(i).getValue(context, value);
+                if (!(stages[i] instanceof ASTSelect)) {
+                    value = result;
+                } else if (!OgnlOps.booleanValue(result)) {
+                    continue elements;
+                }
+            }
+            switch (terminal) {
+            case LIST:
+                list.add(value);
+                break;
+            case INDEX:
+                if (count == index) {
+                    return value;
+                }
+                break;
+            case CONTAINS:
+                if (OgnlOps.equal(target, value)) {
+                    return Boolean.TRUE;
+                }
+                break;
+            default:
+                break;
+            }
+            count++;
+        }
+        switch (terminal) {
+        case LIST:
+            return list;
+        case INDEX:
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+        case SIZE:
+            return count;
+        default:
+            return Boolean.FALSE;
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder buf = new StringBuilder();
+        for (final Node stage : stages) {
+            buf.append('.').append(stage);
+        }
+        if (terminalNode != null) {
+            final String terminalString = terminalNode.toString();
+            buf.append(terminalString.startsWith("[") ? "" : ".").append(terminalString);
+        }
+        if (terminal == CONTAINS) {
+            return jjtGetChild(stages.length) + (negated ? " not in " : " in ") + jjtGetChild(stages.length + 1) + buf;
+        }
+        return buf.substring(1);
+    }
+}
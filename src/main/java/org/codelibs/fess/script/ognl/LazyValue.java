@@ -0,0 +1,58 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.script.ognl;
+
+import java.util.function.Supplier;
+
+/**
+ * A parameter value computed only when a script reads it.
+ * <p>
+ * Put a lazy value in the parameter map passed to {@link OgnlEngine} for fields that are expensive to
+ * compute and referenced by few scripts. Scripts see the computed value, never the {@code LazyValue} itself.
+ * <pre>
+ * paramMap.put("content", LazyValue.of(() -&gt; extractContent(data)));
+ * </pre>
+ */
+@FunctionalInterface
+public interface LazyValue {
+
+    /**
+     * Computes the value.
+     *
+     * @return the value
+     */
+    Object get();
+
+    /**
+     * Returns a lazy value that computes the value at most once, however many scripts read it.
+     *
+     * @param supplier the supplier of the value
+     * @return the lazy value
+     */
+    static LazyValue of(final Supplier<?> supplier) {
+        return new MemoizedLazyValue(supplier);
+    }
+
+    /**
+     * Returns the computed value if the given value is lazy.
+     *
+     * @param value a parameter value
+     * @return the computed value, or {@code value} itself if it is not lazy
+     */
+    static Object resolve(final Object value) {
+        return value instanceof LazyValue ? ((LazyValue) value).get() : value;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.script.ognl;
+
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * A {@link LazyValue} that computes its value once.
+ * <p>
+ * A lock is used instead of {@code synchronized}, so that a virtual thread waiting for the value
+ * does not pin its carrier thread. A failed computation is retried by the next reader.
+ */
+class MemoizedLazyValue implements LazyValue {
+
+    private static final Object UNRESOLVED = new Object();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private Supplier<?> supplier;
+
+    private volatile Object value = UNRESOLVED;
+
+    MemoizedLazyValue(final Supplier<?> supplier) {
+        this.supplier = Objects.requireNonNull(supplier, "supplier");
+    }
+
+    @Override
+    public Object get() {
+        Object result = value;
+        if (result != UNRESOLVED) {
+            return result;
+        }
+        lock.lock();
+        try {
+            result = value;
+            if (result == UNRESOLVED) {
+                result = supplier.get();
+                value = result;
+                supplier = null;
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        final Object result = value;
+        return result == UNRESOLVED ? "<lazy>" : String.valueOf(result);
+    }
+}
@@ -15,8 +15,36 @@
  */
 package org.codelibs.fess.script.ognl;
 
+import java.io.IOException;
+import java.lang.reflect.InaccessibleObjectException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -25,17 +53,152 @@ import org.codelibs.fess.exception.JobProcessingException;
 import org.codelibs.fess.script.AbstractScriptEngine;
 import org.lastaflute.di.core.factory.SingletonLaContainerFactory;
 
+import ognl.ASTAssign;
+import ognl.ASTCtor;
+import ognl.ASTEval;
+import ognl.ASTMethod;
+import ognl.ASTStaticMethod;
+import ognl.MemberAccess;
+import ognl.Node;
 import ognl.Ognl;
+import ognl.OgnlContext;
+import ognl.OgnlException;
+import ognl.OgnlOps;
+import ognl.OgnlRuntime;
+import ognl.enhance.ExpressionAccessor;
 
 /**
  * Script engine that evaluates OGNL (Object-Graph Navigation Language) expressions.
  * <p>
  * The Fess DI container is exposed to the expression context under the {@code container} key,
- * allowing scripts to access registered components.
+ * allowing scripts to access registered components. Parameters that are expensive to compute can be
+ * passed as {@link LazyValue}s, which are computed only if a script reads them.
+ * <p>
+ * Parsed templates are kept in a bounded cache so that scripts evaluated for every document
+ * are parsed only once. The cache size is configured by {@link #setMaxCacheSize(int)}.
+ * Templates evaluated more often than {@link #setCompileThreshold(int)} can optionally be compiled
+ * into generated Java accessors, which requires {@code --add-opens java.base/java.lang=ALL-UNNAMED}
+ * on Java 17 and later; the first compilation failure turns compilation off.
+ * Constant subexpressions are folded once when a template is parsed, chained projections and selections
+ * are fused into a single pass, and templates that reduce to a literal or a single variable are served
+ * directly without an OGNL context.
+ * <p>
+ * When {@link #setStatsEnabled(boolean)} is on, call counts, failures and latency percentiles are
+ * recorded per template and can be read by {@link #getTemplateStats()}.
+ * <p>
+ * Known templates can be parsed and exercised at startup by {@link #warmUp()}, which is called
+ * after registration in {@code fess_se++.xml}. When {@link #setCacheDirectory(String)} is set,
+ * the cached templates are stored on shutdown and parsed again on the next startup; only their
+ * source is stored, so compilation happens again at run time.
+ * <p>
+ * {@link #evaluateAsync(String, Map)} runs evaluations on virtual threads. The engine keeps no
+ * thread locals and does not block inside {@code synchronized} sections, so it scales with the number of
+ * virtual threads without pinning their carriers.
+ * <p>
+ * Projections and selections over large lists can be run on a fork-join pool by
+ * {@link #setParallelThreshold(int)}.
+ * <p>
+ * Scripts can be restricted to allowed classes by {@link #setSandboxEnabled(boolean)}.
+ * <p>
+ * A runaway script can be stopped by {@link #setMaxEvaluationTime(long)} and
+ * {@link #setMaxEvaluationSteps(long)}; a stack overflow in a script always aborts its evaluation.
  */
 public class OgnlEngine extends AbstractScriptEngine {
     private static final Logger logger = LogManager.getLogger(OgnlEngine.class);
 
+    /** The default maximum number of parsed templates kept in the cache. */
+    public static final int DEFAULT_MAX_CACHE_SIZE = 1000;
+
+    /** The cache of parsed templates. */
+    protected ExpressionCache expressionCache = new ExpressionCache(DEFAULT_MAX_CACHE_SIZE);
+
+    /** The cache of templates that failed to parse. */
+    protected ParseFailureSet parseFailureCache = new ParseFailureSet(DEFAULT_MAX_CACHE_SIZE);
+
+    /** The number of evaluations after which a template is compiled; zero or less disables compilation. */
+    protected int compileThreshold = 0;
+
+    /** Whether compilation was turned off after it failed in this runtime. */
+    protected final AtomicBoolean compilationDisabled = new AtomicBoolean();
+
+    /** Whether parsed templates are optimized by folding constant subexpressions. */
+    protected boolean optimizationEnabled = true;
+
+    /** The member access policy of contexts created by this engine. */
+    protected MemberAccess memberAccess = new ScriptMemberAccess();
+
+    /** Whether scripts are restricted to the members of allowed classes. */
+    protected boolean sandboxEnabled = false;
+
+    /** The classes scripts may access when the sandbox is enabled. */
+    protected final Set<String> allowedClassNames = new LinkedHashSet<>();
+
+    /** The packages scripts may access when the sandbox is enabled. */
+    protected final Set<String> allowedPackageNames = new LinkedHashSet<>();
+
+    /** The supplier of the DI container exposed to scripts as {@code container}. */
+    protected Supplier<?> containerSupplier = SingletonLaContainerFactory::getContainer;
+
+    /** Whether per-template statistics are recorded. */
+    protected boolean statsEnabled = false;
+
+    /** The maximum number of templates with statistics. */
+    protected int maxStatsSize = 1000;
+
+    /** The interval in milliseconds for logging statistics; zero or less disables logging. */
+    protected long statsLogInterval = 0L;
+
+    /** The statistics by template. */
+    protected final Map<String, TemplateStats> templateStatsMap = new ConcurrentHashMap<>();
+
+    /** The time statistics were last logged. */
+    protected final AtomicLong lastStatsLogTime = new AtomicLong(System.currentTimeMillis());
+
+    /** The number of failures per template logged with a stack trace. */
+    protected int failureLogLimit = 5;
+
+    /** The minimum interval in milliseconds between failure summaries of a template. */
+    protected long failureLogInterval = 60_000L;
+
+    /** The reporter of failed evaluations. */
+    protected FailureReporter failureReporter = createFailureReporter();
+
+    /** The templates parsed and exercised by {@link #warmUp()}. */
+    protected final List<String> warmUpTemplateList = new ArrayList<>();
+
+    /** The file listing templates for {@link #warmUp()}, one per line. */
+    protected String warmUpFile;
+
+    /** The number of times each template is evaluated during warm-up. */
+    protected int warmUpIterations = 100;
+
+    /** The directory in which cached templates are stored across restarts. */
+    protected String cacheDirectory;
+
+    /** The maximum time in milliseconds of a single evaluation; zero or less means unlimited. */
+    protected long maxEvaluationTime = 0L;
+
+    /** The maximum number of member accesses of a single evaluation; zero or less means unlimited. */
+    protected long maxEvaluationSteps = 0L;
+
+    /** The number of evaluations aborted by a limit. */
+    protected final LongAdder limitExceededCount = new LongAdder();
+
+    /** The minimum list size for which projections and selections run in parallel; zero or less disables them. */
+    protected int parallelThreshold = 0;
+
+    /** The pool running parallel projections and selections. */
+    protected ForkJoinPool forkJoinPool = ForkJoinPool.commonPool();
+
+    /** The executor created by this engine for asynchronous evaluations, running each on a virtual thread. */
+    protected final ExecutorService defaultAsyncExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /** The executor of asynchronous evaluations. */
+    protected Executor asyncExecutor = defaultAsyncExecutor;
+
+    /** The pool of reusable contexts. */
+    protected ContextPool contextPool = createContextPool();
+
     /**
      * Creates a new {@link OgnlEngine}.
      */
@@ -48,19 +211,1242 @@ public class OgnlEngine extends AbstractScriptEngine {
         if (StringUtil.isBlank(template)) {
             return null;
         }
-        final Map<String, Object> bindingMap = new HashMap<>(paramMap);
-        bindingMap.put("container", SingletonLaContainerFactory.getContainer());
+        Objects.requireNonNull(paramMap, "paramMap");
         try {
-            final Object exp = Ognl.parseExpression(template);
-            return Ognl.getValue(exp, bindingMap);
+            final CachedExpression expression = getExpression(template);
+            if (expression == null) {
+                return null;
+            }
+            if (expression.isTrivial() && !statsEnabled) {
+                return expression.getTrivialValue(paramMap, containerSupplier);
+            }
+            return getValue(expression, new BindingMap(paramMap, containerSupplier));
         } catch (final JobProcessingException e) {
             throw e;
         } catch (final Exception e) {
-            logger.warn("Failed to evaluate ognl script: {} => {}", template, paramMap, e);
+            failureReporter.report(template, paramMap, e);
+            return null;
+        }
+    }
+
+    /**
+     * Evaluates the template on the asynchronous executor, which runs each evaluation on a new
+     * virtual thread unless {@link #setAsyncExecutor(Executor)} is set. Scripts that call blocking
+     * components then do not hold the caller's thread.
+     * <p>
+     * The result is the same as {@link #evaluate(String, Map)}, so failures complete the future
+     * with {@code null}, except for {@link JobProcessingException}, which completes it exceptionally.
+     *
+     * @param template the OGNL template
+     * @param paramMap the parameters, which must not be modified until the future completes
+     * @return the future result
+     */
+    public CompletableFuture<Object> evaluateAsync(final String template, final Map<String, Object> paramMap) {
+        if (StringUtil.isBlank(template)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Objects.requireNonNull(paramMap, "paramMap");
+        return CompletableFuture.supplyAsync(() -> evaluate(template, paramMap), asyncExecutor);
+    }
+
+    /**
+     * Evaluates the template once for each parameter map.
+     * <p>
+     * The template is parsed once and one OGNL context is reused for the whole batch.
+     * A failed row yields {@code null} like {@link #evaluate(String, Map)}.
+     *
+     * @param template the OGNL template
+     * @param paramMaps the parameter maps, one per row
+     * @return the results in the order of the parameter maps
+     */
+    public List<Object> evaluateBatch(final String template, final Iterable<? extends Map<String, Object>> paramMaps) {
+        return evaluateBatch(template, paramMaps.iterator());
+    }
+
+    /**
+     * Evaluates the template once for each parameter map returned by the iterator.
+     *
+     * @param template the OGNL template
+     * @param paramMaps the parameter maps, one per row
+     * @return the results in the order of the parameter maps
+     * @see #evaluateBatch(String, Iterable)
+     */
+    public List<Object> evaluateBatch(final String template, final Iterator<? extends Map<String, Object>> paramMaps) {
+        final List<Object> results = new ArrayList<>();
+        if (StringUtil.isBlank(template)) {
+            paramMaps.forEachRemaining(paramMap -> results.add(null));
+            return results;
+        }
+        final CachedExpression expression;
+        try {
+            expression = getExpression(template);
+        } catch (final Exception e) {
+            failureReporter.report(template, null, e);
+            paramMaps.forEachRemaining(paramMap -> results.add(null));
+            return results;
+        }
+        if (expression == null) {
+            paramMaps.forEachRemaining(paramMap -> results.add(null));
+            return results;
+        }
+        final OgnlContext context = contextPool.acquire();
+        try {
+            while (paramMaps.hasNext()) {
+                final Map<String, Object> paramMap = Objects.requireNonNull(paramMaps.next(), "paramMap");
+                try {
+                    if (expression.isTrivial() && !statsEnabled) {
+                        results.add(expression.getTrivialValue(paramMap, containerSupplier));
+                    } else {
+                        results.add(getValue(expression, context, new BindingMap(paramMap, containerSupplier)));
+                    }
+                } catch (final JobProcessingException e) {
+                    throw e;
+                } catch (final Exception e) {
+                    failureReporter.report(template, paramMap, e);
+                    results.add(null);
+                } finally {
+                    context.clear();
+                }
+            }
+        } finally {
+            contextPool.release(context);
+        }
+        return results;
+    }
+
+    /**
+     * Evaluates the template once for each row of column-oriented parameters.
+     * <p>
+     * Each entry of {@code columns} maps a parameter name to its values, one per row.
+     * All columns must have the same number of rows.
+     *
+     * @param template the OGNL template
+     * @param columns the parameter values by name
+     * @return the results in row order
+     * @throws IllegalArgumentException if the columns have different sizes
+     */
+    public List<Object> evaluateColumns(final String template, final Map<String, ? extends List<?>> columns) {
+        final ColumnRowMap rowMap = new ColumnRowMap(columns);
+        final int rowCount = rowMap.getRowCount();
+        return evaluateBatch(template, new Iterator<Map<String, Object>>() {
+            private int row = 0;
+
+            @Override
+            public boolean hasNext() {
+                return row < rowCount;
+            }
+
+            @Override
+            public Map<String, Object> next() {
+                if (row >= rowCount) {
+                    throw new NoSuchElementException();
+                }
+                rowMap.setRow(row++);
+                return rowMap;
+            }
+        });
+    }
+
+    /**
+     * Evaluates a set of named templates against the same parameter map.
+     * <p>
+     * One OGNL context is reused for the whole set, and a template that appears under several names
+     * is evaluated only once. Each template sees the parameter map as given, so assignments made by
+     * one template are not visible to the others.
+     * A failed template yields {@code null} like {@link #evaluate(String, Map)}.
+     *
+     * @param templateMap the templates by name, evaluated in iteration order
+     * @param paramMap the parameters
+     * @return the results by name, in the iteration order of {@code templateMap}
+     */
+    public Map<String, Object> evaluateAll(final Map<String, String> templateMap, final Map<String, Object> paramMap) {
+        Objects.requireNonNull(paramMap, "paramMap");
+        final Map<String, Object> resultMap = new LinkedHashMap<>();
+        final Map<String, Object> templateResultMap = new HashMap<>();
+        final OgnlContext context = contextPool.acquire();
+        try {
+            for (final Map.Entry<String, String> entry : templateMap.entrySet()) {
+                final String template = entry.getValue();
+                if (StringUtil.isBlank(template)) {
+                    resultMap.put(entry.getKey(), null);
+                    continue;
+                }
+                if (templateResultMap.containsKey(template)) {
+                    resultMap.put(entry.getKey(), templateResultMap.get(template));
+                    continue;
+                }
+                Object result = null;
+                try {
+                    final CachedExpression expression = getExpression(template);
+                    if (expression != null && expression.isTrivial() && !statsEnabled) {
+                        result = expression.getTrivialValue(paramMap, containerSupplier);
+                    } else if (expression != null) {
+                        result = getValue(expression, context, new BindingMap(paramMap, containerSupplier));
+                    }
+                } catch (final JobProcessingException e) {
+                    throw e;
+                } catch (final Exception e) {
+                    failureReporter.report(template, paramMap, e);
+                } finally {
+                    context.clear();
+                }
+                templateResultMap.put(template, result);
+                resultMap.put(entry.getKey(), result);
+            }
+        } finally {
+            contextPool.release(context);
+        }
+        return resultMap;
+    }
+
+    /**
+     * Evaluates the template as a number.
+     * <p>
+     * Templates made only of numeric and boolean literals, variables, arithmetic, comparisons and
+     * logical operators are computed on primitives without boxing when the variables hold Integer,
+     * Long, Double or Boolean values. Anything else goes through {@link #evaluate(String, Map)}.
+     *
+     * @param template the OGNL template
+     * @param paramMap the parameters
+     * @param defaultValue the value returned when the result is null, not a number, or the evaluation fails
+     * @return the result as a double
+     */
+    public double evaluateAsDouble(final String template, final Map<String, Object> paramMap, final double defaultValue) {
+        Objects.requireNonNull(paramMap, "paramMap");
+        final PrimitiveExpression primitive = getPrimitiveExpression(template, paramMap);
+        Map<String, Object> params = paramMap;
+        if (primitive != null) {
+            final PrimitiveExpression.Frame frame = primitive.newFrame(paramMap);
+            try {
+                return primitive.doubleValue(frame);
+            } catch (final RuntimeException e) {
+                // evaluated again below, reporting the failure if any
+                params = frame.getParams();
+            }
+        }
+        final Object value = evaluate(template, params);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return OgnlOps.doubleValue(value);
+        } catch (final RuntimeException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Evaluates the template as a condition, following OGNL's truth rules.
+     *
+     * @param template the OGNL template
+     * @param paramMap the parameters
+     * @return the truth value of the result, or {@code false} if the evaluation fails
+     * @see #evaluateAsDouble(String, Map, double)
+     */
+    public boolean evaluateAsBoolean(final String template, final Map<String, Object> paramMap) {
+        Objects.requireNonNull(paramMap, "paramMap");
+        final PrimitiveExpression primitive = getPrimitiveExpression(template, paramMap);
+        Map<String, Object> params = paramMap;
+        if (primitive != null) {
+            final PrimitiveExpression.Frame frame = primitive.newFrame(paramMap);
+            try {
+                return primitive.booleanValue(frame);
+            } catch (final RuntimeException e) {
+                // evaluated again below, reporting the failure if any
+                params = frame.getParams();
+            }
+        }
+        return OgnlOps.booleanValue(evaluate(template, params));
+    }
+
+    /**
+     * Evaluates the template as a number, keeping the type OGNL produces.
+     * <p>
+     * Numeric templates are computed as described in {@link #evaluateAsDouble(String, Map, double)}
+     * and only the final result is boxed.
+     *
+     * @param template the OGNL template
+     * @param paramMap the parameters
+     * @return the result, or {@code null} if it is not a number or the evaluation fails
+     */
+    public Number evaluateAsNumber(final String template, final Map<String, Object> paramMap) {
+        Objects.requireNonNull(paramMap, "paramMap");
+        final Object value = evaluatePrimitive(template, paramMap);
+        return value instanceof Number ? (Number) value : null;
+    }
+
+    /**
+     * Evaluates the template as a string.
+     * <p>
+     * Numeric templates are computed as described in {@link #evaluateAsDouble(String, Map, double)}.
+     * Strings are returned as they are and other values are converted with {@code toString()},
+     * without going through OGNL's type converter.
+     *
+     * @param template the OGNL template
+     * @param paramMap the parameters
+     * @return the result, or {@code null} if the result is null or the evaluation fails
+     */
+    public String evaluateAsString(final String template, final Map<String, Object> paramMap) {
+        final Object value = evaluatePrimitive(template, paramMap);
+        if (value == null || value instanceof String) {
+            return (String) value;
+        }
+        try {
+            return value.toString();
+        } catch (final RuntimeException e) {
+            failureReporter.report(template, paramMap, e);
+            return null;
+        }
+    }
+
+    /**
+     * Evaluates the template on primitives when it is purely arithmetic or logical, otherwise with {@link #evaluate(String, Map)}.
+     *
+     * @param template the OGNL template
+     * @param paramMap the parameters
+     * @return the result, boxed in the type OGNL produces
+     */
+    private Object evaluatePrimitive(final String template, final Map<String, Object> paramMap) {
+        final PrimitiveExpression primitive = getPrimitiveExpression(template, paramMap);
+        Map<String, Object> params = paramMap;
+        if (primitive != null) {
+            final PrimitiveExpression.Frame frame = primitive.newFrame(paramMap);
+            try {
+                return primitive.value(frame);
+            } catch (final RuntimeException e) {
+                // evaluated again below, reporting the failure if any
+                params = frame.getParams();
+            }
+        }
+        return evaluate(template, params);
+    }
+
+    /**
+     * Returns the parameters, DI components and static members the template references, computed
+     * from its cached parse tree after constant folding.
+     * <p>
+     * When {@link TemplateAnalysis#isComplete()} is {@code true}, evaluating the template with only
+     * the entries named by {@link TemplateAnalysis#getVariableNames()} gives the same result as with
+     * the whole parameter map.
+     *
+     * @param template the OGNL template
+     * @return the analysis, or {@code null} if the template is blank or cannot be parsed
+     */
+    public TemplateAnalysis analyze(final String template) {
+        if (StringUtil.isBlank(template)) {
+            return null;
+        }
+        try {
+            final CachedExpression expression = getExpression(template);
+            return expression == null ? null : expression.getAnalysis();
+        } catch (final Exception e) {
+            failureReporter.report(template, null, e);
+            return null;
+        }
+    }
+
+    /**
+     * Parses and exercises the configured warm-up templates, so that caches and the JIT reach
+     * a steady state before the first document is processed.
+     * <p>
+     * Templates come from {@link #addWarmUpTemplate(String)} and from the file set by
+     * {@link #setWarmUpFile(String)}. The templates stored by {@link #storeTemplates()} are only parsed,
+     * as they were seen at run time rather than configured, and may have side effects. Failures during
+     * warm-up are logged at debug level only.
+     */
+    public void warmUp() {
+        parseTemplates(loadTemplates());
+        final List<String> templateList = new ArrayList<>(warmUpTemplateList);
+        if (StringUtil.isNotBlank(warmUpFile)) {
+            try {
+                Files.readAllLines(Paths.get(warmUpFile), StandardCharsets.UTF_8)
+                        .stream()
+                        .filter(StringUtil::isNotBlank)
+                        .forEach(templateList::add);
+            } catch (final IOException e) {
+                logger.warn("Failed to read ognl warm-up file: {}", warmUpFile, e);
+            }
+        }
+        warmUp(templateList);
+    }
+
+    /**
+     * Parses the templates and evaluates each of them against a synthetic empty parameter map.
+     * Evaluations run within the configured limits and sandbox, like any other evaluation.
+     *
+     * @param templates the templates to warm up
+     */
+    public void warmUp(final Collection<String> templates) {
+        if (templates.isEmpty()) {
+            return;
+        }
+        final long startTime = System.currentTimeMillis();
+        int count = 0;
+        final OgnlContext context = contextPool.acquire();
+        try {
+            for (final String template : templates) {
+                if (StringUtil.isBlank(template)) {
+                    continue;
+                }
+                final CachedExpression expression;
+                try {
+                    expression = getExpression(template);
+                } catch (final Exception | StackOverflowError e) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Failed to parse ognl script during warm-up: {}", template, e);
+                    }
+                    continue;
+                }
+                if (expression == null) {
+                    continue;
+                }
+                count++;
+                for (int i = 0; i < warmUpIterations; i++) {
+                    try {
+                        // the synthetic map is not representative of real documents, so warm-up does not trigger compilation
+                        evaluateExpression(expression, context, new BindingMap(Collections.emptyMap(), containerSupplier), false);
+                    } catch (final Exception | StackOverflowError e) {
+                        if (logger.isDebugEnabled() && i == 0) {
+                            logger.debug("Failed to evaluate ognl script during warm-up: {}", template, e);
+                        }
+                    } finally {
+                        context.clear();
+                    }
+                }
+            }
+        } finally {
+            contextPool.release(context);
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info("Warmed up {} ognl scripts in {}ms.", count, System.currentTimeMillis() - startTime);
+        }
+    }
+
+    /**
+     * Parses the templates into the cache without evaluating them.
+     *
+     * @param templates the templates to parse
+     * @return the number of templates parsed successfully
+     */
+    protected int parseTemplates(final Collection<String> templates) {
+        int count = 0;
+        for (final String template : templates) {
+            if (StringUtil.isBlank(template)) {
+                continue;
+            }
+            try {
+                if (getExpression(template) != null) {
+                    count++;
+                }
+            } catch (final Exception | StackOverflowError e) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Failed to parse stored ognl script: {}", template, e);
+                }
+            }
+        }
+        if (count > 0 && logger.isInfoEnabled()) {
+            logger.info("Parsed {} stored ognl scripts.", count);
+        }
+        return count;
+    }
+
+    /**
+     * Stores the cached templates in the cache directory, so that they are parsed again on the next startup.
+     * Only the template sources are stored; compiled accessors are not.
+     * Nothing is stored if no cache directory is set.
+     */
+    public void storeTemplates() {
+        final Path path = getTemplateStorePath();
+        if (path == null) {
+            return;
+        }
+        final Base64.Encoder encoder = Base64.getEncoder();
+        final List<String> lines = new ArrayList<>();
+        for (final String template : expressionCache.getTemplates()) {
+            lines.add(encoder.encodeToString(template.getBytes(StandardCharsets.UTF_8)));
+        }
+        try {
+            Files.createDirectories(path.getParent());
+            final Path tempPath = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+            Files.write(tempPath, lines, StandardCharsets.UTF_8);
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Stored {} ognl scripts in {}", lines.size(), path);
+            }
+        } catch (final IOException e) {
+            logger.warn("Failed to store ognl scripts in {}", path, e);
+        }
+    }
+
+    /**
+     * Loads the templates stored by {@link #storeTemplates()} for the current OGNL and plugin versions.
+     *
+     * @return the stored templates, or an empty list if there are none
+     */
+    protected List<String> loadTemplates() {
+        final Path path = getTemplateStorePath();
+        if (path == null || !Files.isRegularFile(path)) {
+            return Collections.emptyList();
+        }
+        final Base64.Decoder decoder = Base64.getDecoder();
+        final List<String> templateList = new ArrayList<>();
+        try {
+            for (final String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                if (StringUtil.isNotBlank(line)) {
+                    templateList.add(new String(decoder.decode(line.trim()), StandardCharsets.UTF_8));
+                }
+            }
+        } catch (final IOException | IllegalArgumentException e) {
+            logger.warn("Failed to load ognl scripts from {}", path, e);
+        }
+        return templateList;
+    }
+
+    /**
+     * Returns the file for stored templates. The file name contains the OGNL and plugin versions,
+     * so templates stored by another version are not loaded.
+     *
+     * @return the path of the template store, or {@code null} if no cache directory is set
+     */
+    protected Path getTemplateStorePath() {
+        if (StringUtil.isBlank(cacheDirectory)) {
+            return null;
+        }
+        final String version = getVersion(Ognl.class) + "_" + getVersion(OgnlEngine.class);
+        return Paths.get(cacheDirectory, "ognl-templates-" + version.replaceAll("[^\\w.\\-]", "_") + ".txt");
+    }
+
+    private static String getVersion(final Class<?> clazz) {
+        final Package pkg = clazz.getPackage();
+        final String version = pkg != null ? pkg.getImplementationVersion() : null;
+        return version != null ? version : "unknown";
+    }
+
+    /**
+     * Returns the primitive form of the template, or {@code null} when it must be evaluated by OGNL.
+     *
+     * @param template the OGNL template
+     * @param paramMap the parameters, used for failure reports
+     * @return the primitive expression, or {@code null}
+     */
+    protected PrimitiveExpression getPrimitiveExpression(final String template, final Map<String, Object> paramMap) {
+        if (StringUtil.isBlank(template) || statsEnabled) {
+            return null;
+        }
+        try {
+            final CachedExpression expression = getExpression(template);
+            return expression == null ? null : expression.getPrimitiveExpression();
+        } catch (final Exception e) {
+            failureReporter.report(template, paramMap, e);
             return null;
         }
     }
 
+    /**
+     * Returns the parsed expression for the template, parsing and caching it on a cache miss.
+     * <p>
+     * A template that failed to parse is remembered, and later calls return {@code null}
+     * without parsing or logging it again until {@link #clearCache()} or {@link #invalidate(String)} is called.
+     *
+     * @param template the OGNL template
+     * @return the parsed expression, or {@code null} if the template is known to be unparseable
+     * @throws OgnlException if the template cannot be parsed
+     */
+    protected CachedExpression getExpression(final String template) throws OgnlException {
+        final TemplateStats stats = obtainTemplateStats(template);
+        final long startTime = stats != null ? System.nanoTime() : 0L;
+        try {
+            final CachedExpression expression = expressionCache.get(template);
+            if (expression != null) {
+                return expression;
+            }
+            if (parseFailureCache.contains(template)) {
+                if (stats != null) {
+                    stats.recordFailure();
+                }
+                return null;
+            }
+            expressionCache.recordMiss();
+            Node tree;
+            try {
+                tree = (Node) Ognl.parseExpression(template);
+            } catch (final OgnlException e) {
+                parseFailureCache.add(template);
+                throw e;
+            }
+            if (optimizationEnabled) {
+                tree = optimize(template, tree);
+            }
+            if (maxEvaluationTime > 0 || maxEvaluationSteps > 0) {
+                tree = BudgetedNode.instrument(tree);
+            }
+            if (parallelThreshold > 0) {
+                tree = ParallelCollectionNode.parallelize(tree, parallelThreshold, forkJoinPool, () -> createContext(null));
+            }
+            if (optimizationEnabled) {
+                // after parallelization, so that parallel stages are not fused
+                tree = FusedPipelineNode.fuse(tree);
+            }
+            return expressionCache.put(new CachedExpression(template, tree));
+        } catch (final OgnlException | RuntimeException e) {
+            if (stats != null) {
+                stats.recordFailure();
+            }
+            throw e;
+        } finally {
+            if (stats != null) {
+                stats.recordParse(System.nanoTime() - startTime);
+            }
+        }
+    }
+
+    /**
+     * Optimizes a parsed template by folding its constant subexpressions.
+     *
+     * @param template the OGNL template
+     * @param tree the parsed template
+     * @return the optimized tree, or a freshly parsed tree if optimization fails
+     * @throws OgnlException if the template cannot be parsed again
+     */
+    protected Node optimize(final String template, final Node tree) throws OgnlException {
+        final OgnlContext context = contextPool.acquire();
+        try {
+            return new ExpressionOptimizer(context).optimize(tree);
+        } catch (final RuntimeException e) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Failed to optimize ognl script: {}", template, e);
+            }
+            return (Node) Ognl.parseExpression(template);
+        } finally {
+            contextPool.release(context);
+        }
+    }
+
+    /**
+     * Evaluates the parsed expression with a pooled context.
+     *
+     * @param expression the parsed expression
+     * @param root the root object of the evaluation
+     * @return the result of the evaluation
+     * @throws OgnlException if the evaluation fails
+     */
+    protected Object getValue(final CachedExpression expression, final Map<String, Object> root) throws OgnlException {
+        final OgnlContext context = contextPool.acquire();
+        try {
+            return getValue(expression, context, root);
+        } finally {
+            contextPool.release(context);
+        }
+    }
+
+    /**
+     * Evaluates the parsed expression, recording its statistics when enabled.
+     *
+     * @param expression the parsed expression
+     * @param context the context of the evaluation
+     * @param root the root object of the evaluation
+     * @return the result of the evaluation
+     * @throws OgnlException if the evaluation fails
+     */
+    protected Object getValue(final CachedExpression expression, final OgnlContext context, final Map<String, Object> root)
+            throws OgnlException {
+        final TemplateStats stats = obtainTemplateStats(expression.getTemplate());
+        if (stats == null) {
+            return evaluateExpression(expression, context, root);
+        }
+        final long startTime = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            final Object value = evaluateExpression(expression, context, root);
+            succeeded = true;
+            return value;
+        } finally {
+            stats.recordEvaluation(System.nanoTime() - startTime);
+            if (!succeeded) {
+                stats.recordFailure();
+            }
+            logStatsIfNeeded();
+        }
+    }
+
+    /**
+     * Evaluates the parsed expression within the configured limits.
+     *
+     * @param expression the parsed expression
+     * @param context the context of the evaluation
+     * @param root the root object of the evaluation
+     * @return the result of the evaluation
+     * @throws OgnlException if the evaluation fails
+     */
+    protected Object evaluateExpression(final CachedExpression expression, final OgnlContext context, final Map<String, Object> root)
+            throws OgnlException {
+        return evaluateExpression(expression, context, root, true);
+    }
+
+    /**
+     * Evaluates the parsed expression within the configured limits.
+     *
+     * @param expression the parsed expression
+     * @param context the context of the evaluation
+     * @param root the root object of the evaluation
+     * @param compilable whether the evaluation counts towards compiling the expression
+     * @return the result of the evaluation
+     * @throws OgnlException if the evaluation fails
+     */
+    protected Object evaluateExpression(final CachedExpression expression, final OgnlContext context, final Map<String, Object> root,
+            final boolean compilable) throws OgnlException {
+        final EvaluationBudget budget = createBudget();
+        if (budget != null) {
+            context.put(EvaluationBudget.CONTEXT_KEY, budget);
+        }
+        try {
+            if (!compilable || budget != null || sandboxEnabled) {
+                // compiled accessors bypass member access checks, so budgets and the sandbox are only enforced when interpreting
+                return Ognl.getValue(expression.getTree(), context, root);
+            }
+            return evaluateCompiled(expression, context, root);
+        } catch (final StackOverflowError e) {
+            throw limitExceeded(new EvaluationLimitException(EvaluationLimitException.STACK_OVERFLOW_MESSAGE, e));
+        } catch (final Exception e) {
+            final EvaluationLimitException limitException = EvaluationLimitException.find(e);
+            if (limitException != null) {
+                throw limitExceeded(limitException);
+            }
+            throw e;
+        } finally {
+            if (budget != null) {
+                context.remove(EvaluationBudget.CONTEXT_KEY);
+            }
+        }
+    }
+
+    private Object evaluateCompiled(final CachedExpression expression, final OgnlContext context, final Map<String, Object> root)
+            throws OgnlException {
+        if (compileThreshold > 0) {
+            final ExpressionAccessor accessor = getAccessor(expression, root);
+            if (accessor != null) {
+                try {
+                    context.setRoot(root);
+                    return accessor.get(context, root);
+                } catch (final RuntimeException e) {
+                    // the script may have had side effects, so it is not run again; later evaluations are interpreted
+                    expression.setAccessor(null);
+                    throw e;
+                }
+            }
+        }
+        return Ognl.getValue(expression.getTree(), context, root);
+    }
+
+    /**
+     * Returns the compiled accessor of the expression, compiling its cached tree once the
+     * evaluation count reaches the compile threshold.
+     * <p>
+     * OGNL evaluates the tree to infer types while compiling it, so only trees without method calls,
+     * constructors and assignments are compiled; the others would run their side effects again.
+     *
+     * @param expression the parsed expression
+     * @param root the root object used to infer types during compilation
+     * @return the compiled accessor, or {@code null} if the expression is interpreted
+     */
+    protected ExpressionAccessor getAccessor(final CachedExpression expression, final Map<String, Object> root) {
+        if (expression.isCompilationStarted()) {
+            return expression.getAccessor();
+        }
+        if (compilationDisabled.get() || expression.incrementEvaluationCount() < compileThreshold || !expression.startCompilation()) {
+            return null;
+        }
+        final Node tree = expression.getTree();
+        if (!isCompilable(tree)) {
+            return null;
+        }
+        try {
+            OgnlRuntime.compileExpression(createContext(root), tree, root);
+            expression.setAccessor(tree.getAccessor());
+            if (logger.isDebugEnabled()) {
+                logger.debug("Compiled ognl script: {}", expression.getTemplate());
+            }
+        } catch (final Exception | LinkageError e) {
+            if (!isCompilerRejected(e)) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Failed to compile ognl script, so it is interpreted: {}", expression.getTemplate(), e);
+                }
+            } else if (compilationDisabled.compareAndSet(false, true)) {
+                logger.warn("Failed to compile ognl script, so compilation is disabled: {}", expression.getTemplate(), e);
+            }
+        } finally {
+            // Ognl.getValue would otherwise run the accessor for evaluations that must be interpreted
+            tree.setAccessor(null);
+        }
+        return expression.getAccessor();
+    }
+
+    /**
+     * Returns whether the tree is made only of OGNL's own nodes, which are the only ones that
+     * generate source for a compiled accessor, and has no node that could have side effects.
+     *
+     * @param node the root of the tree
+     * @return {@code true} if the tree can be compiled
+     */
+    protected static boolean isCompilable(final Node node) {
+        if (!node.getClass().getName().startsWith("ognl.") || node instanceof ASTMethod || node instanceof ASTStaticMethod
+                || node instanceof ASTCtor || node instanceof ASTAssign || node instanceof ASTEval) {
+            return false;
+        }
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            if (!isCompilable(node.jjtGetChild(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether a compilation failed because the runtime does not allow OGNL to define
+     * classes, rather than because of the template.
+     *
+     * @param e the failure
+     * @return {@code true} if no template can be compiled
+     */
+    private static boolean isCompilerRejected(final Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof LinkageError || cause instanceof SecurityException || cause instanceof InaccessibleObjectException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates an OGNL context for the root object.
+     *
+     * @param root the root object of the evaluation
+     * @return a new context
+     */
+    protected OgnlContext createContext(final Object root) {
+        return Ognl.createDefaultContext(root, memberAccess);
+    }
+
+    /**
+     * Creates the pool of reusable contexts.
+     *
+     * @return a new pool
+     */
+    protected ContextPool createContextPool() {
+        return new ContextPool(Runtime.getRuntime().availableProcessors() * 4, () -> createContext(null));
+    }
+
+    /**
+     * Rebuilds the member access policy from the sandbox settings. Pooled contexts are replaced
+     * and cached templates cleared, so that no evaluation keeps the previous policy.
+     */
+    protected void updateMemberAccess() {
+        memberAccess = sandboxEnabled ? new AllowListMemberAccess(allowedClassNames, allowedPackageNames) : new ScriptMemberAccess();
+        contextPool = createContextPool();
+        clearCache();
+    }
+
+    /**
+     * Restricts scripts to the public members of allowed classes.
+     * <p>
+     * Besides the classes and packages added by {@link #addAllowedClass(String)} and
+     * {@link #addAllowedPackage(String)}, strings, boxed numbers, {@code Math} and the common collection
+     * types are allowed. Class loaders, reflection, threads, processes and {@code System} are never
+     * accessible in the sandbox. Templates are not compiled while the sandbox is enabled, as compiled
+     * accessors bypass member access checks.
+     *
+     * @param sandboxEnabled {@code true} to restrict scripts to allowed classes
+     */
+    public void setSandboxEnabled(final boolean sandboxEnabled) {
+        this.sandboxEnabled = sandboxEnabled;
+        updateMemberAccess();
+    }
+
+    /**
+     * Allows scripts in the sandbox to access the public members of the class.
+     *
+     * @param className the binary name of the class, such as {@code java.util.Map$Entry}
+     */
+    public void addAllowedClass(final String className) {
+        allowedClassNames.add(className);
+        updateMemberAccess();
+    }
+
+    /**
+     * Allows scripts in the sandbox to access the public members of the classes in the package
+     * and its subpackages.
+     *
+     * @param packageName the name of the package
+     */
+    public void addAllowedPackage(final String packageName) {
+        allowedPackageNames.add(packageName);
+        updateMemberAccess();
+    }
+
+    /**
+     * Creates the budget of an evaluation.
+     *
+     * @return the budget, or {@code null} if evaluations are unlimited
+     */
+    protected EvaluationBudget createBudget() {
+        if (maxEvaluationTime <= 0 && maxEvaluationSteps <= 0) {
+            return null;
+        }
+        return new EvaluationBudget(maxEvaluationTime, maxEvaluationSteps);
+    }
+
+    private EvaluationLimitException limitExceeded(final EvaluationLimitException e) {
+        limitExceededCount.increment();
+        return e;
+    }
+
+    /**
+     * Sets the maximum time of a single evaluation. The time is checked whenever a step is charged,
+     * so a script is aborted at its next method call, property read, projected element or array allocation
+     * after the deadline. Arithmetic and variable reads are not checked, and a single method call is not interrupted.
+     * <p>
+     * Changing the limit clears the template cache.
+     *
+     * @param maxEvaluationTime the maximum time in milliseconds; zero or less, the default, means unlimited
+     */
+    public void setMaxEvaluationTime(final long maxEvaluationTime) {
+        this.maxEvaluationTime = maxEvaluationTime;
+        clearCache();
+    }
+
+    /**
+     * Sets the maximum number of steps of a single evaluation. A step is a method call, a constructor call,
+     * a reflective property read, an element of a projection or selection, or an element of an allocated array.
+     * Arguments of other constructors, such as initial capacities, are not charged.
+     * <p>
+     * Templates are not compiled while a time or step limit is set. Changing the limit clears the template cache.
+     *
+     * @param maxEvaluationSteps the maximum number of steps; zero or less, the default, means unlimited
+     */
+    public void setMaxEvaluationSteps(final long maxEvaluationSteps) {
+        this.maxEvaluationSteps = maxEvaluationSteps;
+        clearCache();
+    }
+
+    /**
+     * Sets the executor of {@link #evaluateAsync(String, Map)}.
+     *
+     * @param asyncExecutor the executor; the caller remains responsible for shutting it down
+     */
+    public void setAsyncExecutor(final Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    /**
+     * Stops accepting asynchronous evaluations on the executor created by this engine.
+     * Evaluations already submitted run to completion. This is called on shutdown from {@code fess_se++.xml}.
+     */
+    public void shutdown() {
+        defaultAsyncExecutor.shutdown();
+    }
+
+    /**
+     * Sets the minimum size of a list for which projections ({@code list.{expr}}) and selections
+     * ({@code list.{? expr}}) are evaluated in parallel. Results keep the order of the list.
+     * <p>
+     * Only enable this for scripts whose projected expressions are free of side effects, since
+     * elements are evaluated concurrently. Cached templates are cleared so that the setting applies to them.
+     *
+     * @param parallelThreshold the minimum list size; zero or less, the default, disables parallel evaluation
+     */
+    public void setParallelThreshold(final int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+        clearCache();
+    }
+
+    /**
+     * Sets the pool running parallel projections and selections. The common pool is used by default.
+     *
+     * @param forkJoinPool the pool
+     */
+    public void setForkJoinPool(final ForkJoinPool forkJoinPool) {
+        this.forkJoinPool = forkJoinPool;
+        clearCache();
+    }
+
+    /**
+     * Returns the number of evaluations aborted by a time or step limit or by a stack overflow.
+     *
+     * @return the number of aborted evaluations
+     */
+    public long getLimitExceededCount() {
+        return limitExceededCount.sum();
+    }
+
+    /**
+     * Sets the number of evaluations after which a template is compiled into a generated accessor.
+     * A value of zero or less, the default, disables compilation.
+     * <p>
+     * Compilation evaluates the template once to infer types, so it should be enabled only for
+     * templates without side effects.
+     * <p>
+     * On Java 17 and later, OGNL generates accessors through reflection on {@code java.lang}, so the JVM
+     * must be started with {@code --add-opens java.base/java.lang=ALL-UNNAMED}. The first compilation
+     * failure is logged at warn level and disables compilation, and templates are interpreted from then on.
+     *
+     * @param compileThreshold the number of interpreted evaluations before compilation
+     */
+    public void setCompileThreshold(final int compileThreshold) {
+        this.compileThreshold = compileThreshold;
+        compilationDisabled.set(false);
+    }
+
+    /**
+     * Returns the statistics holder of the template.
+     *
+     * @param template the OGNL template
+     * @return the statistics, or {@code null} if statistics are disabled or the limit is reached
+     */
+    protected TemplateStats obtainTemplateStats(final String template) {
+        if (!statsEnabled) {
+            return null;
+        }
+        final TemplateStats stats = templateStatsMap.get(template);
+        if (stats != null || templateStatsMap.size() >= maxStatsSize) {
+            return stats;
+        }
+        return templateStatsMap.computeIfAbsent(template, TemplateStats::new);
+    }
+
+    /**
+     * Logs the statistics when the log interval has elapsed since they were last logged.
+     */
+    protected void logStatsIfNeeded() {
+        if (statsLogInterval <= 0L || !logger.isInfoEnabled()) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final long lastTime = lastStatsLogTime.get();
+        if (now - lastTime < statsLogInterval || !lastStatsLogTime.compareAndSet(lastTime, now)) {
+            return;
+        }
+        templateStatsMap.values()
+                .stream()
+                .sorted((s1, s2) -> Long.compare(s2.getEvaluationTime(), s1.getEvaluationTime()))
+                .forEach(stats -> logger.info("ognl script stats: {} => {}", abbreviate(stats.getTemplate()), stats));
+    }
+
+    /**
+     * Shortens a template for logging.
+     *
+     * @param template the OGNL template
+     * @return the template, abbreviated if it is long
+     */
+    protected String abbreviate(final String template) {
+        if (template.length() <= 100) {
+            return template;
+        }
+        return template.substring(0, 100) + "...#" + Integer.toHexString(template.hashCode());
+    }
+
+    /**
+     * Returns the statistics of all templates evaluated since statistics were enabled.
+     *
+     * @return the statistics by template
+     */
+    public Map<String, TemplateStats> getTemplateStats() {
+        return Collections.unmodifiableMap(templateStatsMap);
+    }
+
+    /**
+     * Removes all recorded statistics.
+     */
+    public void clearTemplateStats() {
+        templateStatsMap.clear();
+    }
+
+    /**
+     * Enables or disables per-template statistics.
+     *
+     * @param statsEnabled {@code true} to record statistics
+     */
+    public void setStatsEnabled(final boolean statsEnabled) {
+        this.statsEnabled = statsEnabled;
+    }
+
+    /**
+     * Sets the maximum number of templates with statistics. Templates beyond the limit are not recorded.
+     *
+     * @param maxStatsSize the maximum number of templates
+     */
+    public void setMaxStatsSize(final int maxStatsSize) {
+        this.maxStatsSize = maxStatsSize;
+    }
+
+    /**
+     * Sets the interval for logging statistics at INFO level. Zero or less, the default, disables logging.
+     *
+     * @param statsLogInterval the interval in milliseconds
+     */
+    public void setStatsLogInterval(final long statsLogInterval) {
+        this.statsLogInterval = statsLogInterval;
+    }
+
+    /**
+     * Creates the reporter of failed evaluations from the current settings.
+     *
+     * @return the failure reporter
+     */
+    protected FailureReporter createFailureReporter() {
+        return new FailureReporter(logger, failureLogLimit, failureLogInterval, 1000, 20, 100);
+    }
+
+    /**
+     * Sets the number of failures per template that are logged with a stack trace.
+     * Further failures are summarized periodically.
+     *
+     * @param failureLogLimit the number of fully logged failures per template
+     */
+    public void setFailureLogLimit(final int failureLogLimit) {
+        this.failureLogLimit = failureLogLimit;
+        failureReporter = createFailureReporter();
+    }
+
+    /**
+     * Sets the minimum interval between failure summaries of a template.
+     *
+     * @param failureLogInterval the interval in milliseconds
+     */
+    public void setFailureLogInterval(final long failureLogInterval) {
+        this.failureLogInterval = failureLogInterval;
+        failureReporter = createFailureReporter();
+    }
+
+    /**
+     * Adds a template to parse and exercise in {@link #warmUp()}.
+     *
+     * @param template the OGNL template
+     */
+    public void addWarmUpTemplate(final String template) {
+        warmUpTemplateList.add(template);
+    }
+
+    /**
+     * Sets the file listing templates for {@link #warmUp()}, one template per line.
+     *
+     * @param warmUpFile the path of the UTF-8 file
+     */
+    public void setWarmUpFile(final String warmUpFile) {
+        this.warmUpFile = warmUpFile;
+    }
+
+    /**
+     * Sets the number of times each template is evaluated during warm-up.
+     *
+     * @param warmUpIterations the number of evaluations per template
+     */
+    public void setWarmUpIterations(final int warmUpIterations) {
+        this.warmUpIterations = warmUpIterations;
+    }
+
+    /**
+     * Sets the directory in which cached templates are stored across restarts. Stored templates are
+     * parsed at startup, but neither evaluated nor compiled ahead of time.
+     *
+     * @param cacheDirectory the directory path
+     */
+    public void setCacheDirectory(final String cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Enables or disables folding of constant subexpressions and fusing of projection and selection
+     * chains when a template is parsed.
+     *
+     * @param optimizationEnabled {@code true} to optimize parsed templates
+     */
+    public void setOptimizationEnabled(final boolean optimizationEnabled) {
+        this.optimizationEnabled = optimizationEnabled;
+    }
+
+    /**
+     * Sets the maximum number of parsed templates kept in the cache.
+     * A value of zero or less disables caching.
+     *
+     * @param maxCacheSize the maximum number of cached templates
+     */
+    public void setMaxCacheSize(final int maxCacheSize) {
+        expressionCache = new ExpressionCache(maxCacheSize);
+    }
+
+    /**
+     * Sets the maximum number of unparseable templates remembered.
+     * A value of zero or less disables the negative cache.
+     *
+     * @param maxParseFailureCacheSize the maximum number of remembered unparseable templates
+     */
+    public void setMaxParseFailureCacheSize(final int maxParseFailureCacheSize) {
+        parseFailureCache = new ParseFailureSet(maxParseFailureCacheSize);
+    }
+
+    /**
+     * Removes all parsed templates and remembered parse failures from the cache.
+     */
+    public void clearCache() {
+        expressionCache.clear();
+        parseFailureCache.clear();
+    }
+
+    /**
+     * Removes the template, or its remembered parse failure, from the cache.
+     *
+     * @param template the OGNL template
+     */
+    public void invalidate(final String template) {
+        expressionCache.invalidate(template);
+        parseFailureCache.remove(template);
+    }
+
+    /**
+     * Returns the number of remembered unparseable templates.
+     *
+     * @return the size of the negative cache
+     */
+    public int getParseFailureCacheSize() {
+        return parseFailureCache.size();
+    }
+
+    /**
+     * Returns the number of parsed templates in the cache.
+     *
+     * @return the cache size
+     */
+    public int getCacheSize() {
+        return expressionCache.size();
+    }
+
+    /**
+     * Returns the number of evaluations served by a cached template.
+     *
+     * @return the cache hit count
+     */
+    public long getCacheHitCount() {
+        return expressionCache.getHitCount();
+    }
+
+    /**
+     * Returns the number of evaluations that had to parse the template.
+     *
+     * @return the cache miss count
+     */
+    public long getCacheMissCount() {
+        return expressionCache.getMissCount();
+    }
+
+    /**
+     * Returns the number of templates evicted from the cache.
+     *
+     * @return the cache eviction count
+     */
+    public long getCacheEvictionCount() {
+        return expressionCache.getEvictionCount();
+    }
+
     @Override
     protected String getName() {
         return "ognl";
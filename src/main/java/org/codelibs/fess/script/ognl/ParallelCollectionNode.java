@@ -0,0 +1,198 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.script.ognl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+
+import ognl.ASTProject;
+import ognl.ASTSelect;
+import ognl.Node;
+import ognl.OgnlContext;
+import ognl.OgnlException;
+import ognl.OgnlOps;
+import ognl.OgnlParserTreeConstants;
+import ognl.SimpleNode;
+
+/**
+ * Replaces a projection ({@code list.{expr}}) or a selection ({@code list.{? expr}}) and evaluates it
+ * on a fork-join pool when the source is a random-access list of at least the threshold size.
+ * <p>
+ * Elements are split into chunks and each chunk is evaluated with its own context, which starts with
+ * the variables and the root of the calling context. A {@link BindingMap} root is forked for each chunk,
+ * so lazy values computed and entries written by a chunk are not seen by the others or by the caller.
+ * Results keep the order of the source list.
+ * Smaller or other sources are evaluated by the original node.
+ */
+class ParallelCollectionNode extends SimpleNode {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int MIN_CHUNK_SIZE = 64;
+
+    private final SimpleNode delegate;
+
+    private final boolean selection;
+
+    private final int threshold;
+
+    private final transient ForkJoinPool pool;
+
+    private final transient Supplier<OgnlContext> contextFactory;
+
+    private ParallelCollectionNode(final SimpleNode delegate, final boolean selection, final int threshold, final ForkJoinPool pool,
+            final Supplier<OgnlContext> contextFactory) {
+        super(selection ? OgnlParserTreeConstants.JJTSELECT : OgnlParserTreeConstants.JJTPROJECT);
+        this.delegate = delegate;
+        this.selection = selection;
+        this.threshold = threshold;
+        this.pool = pool;
+        this.contextFactory = contextFactory;
+        final Node expression = delegate.jjtGetChild(0);
+        jjtAddChild(expression, 0);
+        expression.jjtSetParent(this);
+    }
+
+    /**
+     * Replaces the projections and selections in the tree by parallel nodes.
+     *
+     * @param node the parsed template
+     * @param threshold the minimum list size evaluated in parallel
+     * @param pool the pool evaluating the chunks
+     * @param contextFactory the factory of chunk contexts
+     * @return the node to use in place of {@code node}
+     */
+    static Node parallelize(final Node node, final int threshold, final ForkJoinPool pool, final Supplier<OgnlContext> contextFactory) {
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            final Node child = node.jjtGetChild(i);
+            final Node replaced = parallelize(child, threshold, pool, contextFactory);
+            if (replaced != child) {
+                node.jjtAddChild(replaced, i);
+                replaced.jjtSetParent(node);
+            }
+        }
+        if ((node instanceof ASTProject || node instanceof ASTSelect) && node.jjtGetNumChildren() == 1) {
+            final ParallelCollectionNode parallel =
+                    new ParallelCollectionNode((SimpleNode) node, node instanceof ASTSelect, threshold, pool, contextFactory);
+            parallel.jjtSetParent(node.jjtGetParent());
+            return parallel;
+        }
+        return node;
+    }
+
+    boolean isSelection() {
+        return selection;
+    }
+
+    @Override
+    protected Object getValueBody(final OgnlContext context, final Object source) throws OgnlException {
+        if (!(source instanceof List) || !(source instanceof RandomAccess) || ((List<?>) source).size() < threshold) {
+            return delegate.getValue(context, source);
+        }
+        final List<?> elements = (List<?>) source;
+        final Object[] values = new Object[elements.size()];
+        final int chunkSize = Math.max(MIN_CHUNK_SIZE, elements.size() / (pool.getParallelism() * 4));
+        try {
+            pool.invoke(new ChunkTask(context, elements, values, 0, elements.size(), chunkSize));
+        } catch (final RuntimeException e) {
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof ChunkFailure) {
+                    throw (OgnlException) cause.getCause();
+                }
+            }
+            throw e;
+        }
+        if (!selection) {
+            return new ArrayList<>(Arrays.asList(values));
+        }
+        final List<Object> selected = new ArrayList<>();
+        for (int i = 0; i < values.length; i++) {
+            if (OgnlOps.booleanValue(values[i])) {
+                selected.add(elements.get(i));
+            }
+        }
+        return selected;
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+
+    private class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient OgnlContext parentContext;
+
+        private final transient List<?> elements;
+
+        private final transient Object[] values;
+
+        private final int start;
+
+        private final int end;
+
+        private final int chunkSize;
+
+        ChunkTask(final OgnlContext parentContext, final List<?> elements, final Object[] values, final int start, final int end,
+                final int chunkSize) {
+            this.parentContext = parentContext;
+            this.elements = elements;
+            this.values = values;
+            this.start = start;
+            this.end = end;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > chunkSize) {
+                final int middle = (start + end) >>> 1;
+                invokeAll(new ChunkTask(parentContext, elements, values, start, middle, chunkSize),
+                        new ChunkTask(parentContext, elements, values, middle, end, chunkSize));
+                return;
+            }
+            final OgnlContext context = contextFactory.get();
+            context.putAll(parentContext);
+            final Object root = parentContext.getRoot();
+            context.setRoot(root instanceof BindingMap ? ((BindingMap) root).fork() : root);
+            final Node expression = jjtGetChild(0);
+            try {
+                for (int i = start; i < end; i++) {
+                    values[i] = expression.getValue(context, elements.get(i));
+                }
+            } catch (final OgnlException e) {
+                throw new ChunkFailure(e);
+            }
+        }
+    }
+
+    /**
+     * Carries an {@link OgnlException} out of a fork-join task.
+     */
+    private static class ChunkFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ChunkFailure(final OgnlException cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.script.ognl;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Concurrent, size-bounded set of templates that failed to parse.
+ * <p>
+ * It only saves repeated parse attempts of broken templates, so when it is full an arbitrary
+ * other template is dropped to make room, and that template is simply parsed and reported again.
+ */
+class ParseFailureSet {
+
+    private final Set<String> templates = ConcurrentHashMap.newKeySet();
+
+    private final int maxSize;
+
+    ParseFailureSet(final int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    boolean contains(final String template) {
+        return templates.contains(template);
+    }
+
+    void add(final String template) {
+        if (maxSize <= 0 || !templates.add(template)) {
+            return;
+        }
+        final Iterator<String> iterator = templates.iterator();
+        while (templates.size() > maxSize && iterator.hasNext()) {
+            if (!template.equals(iterator.next())) {
+                iterator.remove();
+            }
+        }
+    }
+
+    void remove(final String template) {
+        templates.remove(template);
+    }
+
+    void clear() {
+        templates.clear();
+    }
+
+    int size() {
+        return templates.size();
+    }
+}
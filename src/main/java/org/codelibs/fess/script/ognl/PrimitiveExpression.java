@@ -0,0 +1,601 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.script.ognl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ognl.ASTAdd;
+import ognl.ASTAnd;
+import ognl.ASTConst;
+import ognl.ASTDivide;
+import ognl.ASTEq;
+import ognl.ASTGreater;
+import ognl.ASTGreaterEq;
+import ognl.ASTLess;
+import ognl.ASTLessEq;
+import ognl.ASTMultiply;
+import ognl.ASTNegate;
+import ognl.ASTNot;
+import ognl.ASTNotEq;
+import ognl.ASTOr;
+import ognl.ASTProperty;
+import ognl.ASTRemainder;
+import ognl.ASTSubtract;
+import ognl.ASTTest;
+import ognl.Node;
+
+/**
+ * Evaluates arithmetic, comparison and logical templates on primitive values without boxing.
+ * <p>
+ * Integer, Long, Double and Boolean operands are supported, with the same numeric promotion as OGNL:
+ * int arithmetic wraps at 32 bits, integer division truncates, and mixing with a double yields a double.
+ * When a variable holds any other type, {@link UnsupportedValueException} is thrown so that the caller
+ * can fall back to regular OGNL evaluation.
+ * <p>
+ * Each node is evaluated once per call: it returns its result type and leaves its value in the {@link Frame}
+ * of the call, where the parent node reads it before evaluating the next operand. Each variable is read
+ * from the parameter map and resolved, if lazy, at most once per call, like {@link BindingMap} does.
+ */
+abstract class PrimitiveExpression {
+
+    static final int INT = 0;
+
+    static final int LONG = 1;
+
+    static final int DOUBLE = 2;
+
+    static final int BOOLEAN = 3;
+
+    private static final Object UNRESOLVED = new Object();
+
+    private static final String[] NO_NAMES = {};
+
+    /** The names of the variables, indexed by their slot; only set on the root node. */
+    private String[] variableNames = NO_NAMES;
+
+    /**
+     * Holds the resolved variables of a call and the value of the node evaluated last. Integral and boolean
+     * values are kept in {@link #longValue}, with booleans as one and zero, and doubles in {@link #doubleValue}.
+     */
+    static final class Frame {
+        private final Map<String, Object> vars;
+
+        private final String[] names;
+
+        private final Object[] values;
+
+        private boolean lazyResolved;
+
+        long longValue;
+
+        double doubleValue;
+
+        Frame(final Map<String, Object> vars, final String[] names) {
+            this.vars = vars;
+            this.names = names;
+            this.values = new Object[names.length];
+            Arrays.fill(values, UNRESOLVED);
+        }
+
+        Object value(final int slot) {
+            Object value = values[slot];
+            if (value == UNRESOLVED) {
+                final Object raw = vars.get(names[slot]);
+                value = LazyValue.resolve(raw);
+                lazyResolved |= value != raw;
+                values[slot] = value;
+            }
+            return value;
+        }
+
+        /**
+         * Returns the parameters for evaluating the template again with OGNL, with the lazy values
+         * read by this call replaced by their results, so that they are not computed twice.
+         *
+         * @return the parameter map, or a copy of it if lazy values were resolved
+         */
+        Map<String, Object> getParams() {
+            if (!lazyResolved) {
+                return vars;
+            }
+            final Map<String, Object> params = new HashMap<>(vars);
+            for (int i = 0; i < names.length; i++) {
+                if (values[i] != UNRESOLVED) {
+                    params.put(names[i], values[i]);
+                }
+            }
+            return params;
+        }
+
+        void set(final long value) {
+            longValue = value;
+        }
+
+        void set(final double value) {
+            doubleValue = value;
+        }
+
+        double asDouble(final int type) {
+            return type == DOUBLE ? doubleValue : longValue;
+        }
+
+        boolean asBoolean(final int type) {
+            return type == DOUBLE ? doubleValue != 0 : longValue != 0;
+        }
+    }
+
+    /**
+     * Thrown when a value cannot be evaluated on primitives. It carries no stack trace.
+     */
+    static final class UnsupportedValueException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        static final UnsupportedValueException INSTANCE = new UnsupportedValueException();
+
+        private UnsupportedValueException() {
+            super("unsupported value", null, false, false);
+        }
+    }
+
+    /**
+     * Builds a primitive expression for the parsed template.
+     *
+     * @param node the parsed template
+     * @return the primitive expression, or {@code null} if the template uses unsupported constructs
+     */
+    static PrimitiveExpression compile(final Node node) {
+        final List<String> names = new ArrayList<>();
+        final PrimitiveExpression expression = compile(node, names);
+        if (expression != null) {
+            expression.variableNames = names.toArray(NO_NAMES);
+        }
+        return expression;
+    }
+
+    private static PrimitiveExpression compile(final Node node, final List<String> names) {
+        if (node instanceof ASTConst) {
+            final Object value = ((ASTConst) node).getValue();
+            final int type = typeOf(value);
+            return type < 0 ? null : new Constant(value, type);
+        }
+        if (node instanceof ASTProperty) {
+            final ASTProperty property = (ASTProperty) node;
+            if (property.isIndexedAccess() || node.jjtGetNumChildren() != 1 || !(node.jjtGetChild(0) instanceof ASTConst)) {
+                return null;
+            }
+            final Object name = ((ASTConst) node.jjtGetChild(0)).getValue();
+            if (!(name instanceof String) || CachedExpression.MAP_PSEUDO_PROPERTIES.contains(name)
+                    || BindingMap.CONTAINER_KEY.equals(name)) {
+                return null;
+            }
+            int slot = names.indexOf(name);
+            if (slot < 0) {
+                slot = names.size();
+                names.add((String) name);
+            }
+            return new Variable(slot);
+        }
+        final PrimitiveExpression[] operands = new PrimitiveExpression[node.jjtGetNumChildren()];
+        for (int i = 0; i < operands.length; i++) {
+            operands[i] = compile(node.jjtGetChild(i), names);
+            if (operands[i] == null) {
+                return null;
+            }
+        }
+        if (node instanceof ASTAdd) {
+            return new Arithmetic('+', operands);
+        }
+        if (node instanceof ASTSubtract) {
+            return new Arithmetic('-', operands);
+        }
+        if (node instanceof ASTMultiply) {
+            return new Arithmetic('*', operands);
+        }
+        if (node instanceof ASTDivide) {
+            return new Arithmetic('/', operands);
+        }
+        if (node instanceof ASTRemainder) {
+            return new Arithmetic('%', operands);
+        }
+        if (node instanceof ASTNegate && operands.length == 1) {
+            return new Negate(operands[0]);
+        }
+        if (node instanceof ASTNot && operands.length == 1) {
+            return new Not(operands[0]);
+        }
+        if (node instanceof ASTTest && operands.length == 3) {
+            return new Conditional(operands[0], operands[1], operands[2]);
+        }
+        if (node instanceof ASTAnd) {
+            return new Logical(true, operands);
+        }
+        if (node instanceof ASTOr) {
+            return new Logical(false, operands);
+        }
+        if (operands.length == 2) {
+            if (node instanceof ASTEq) {
+                return new Comparison(Comparison.EQ, operands[0], operands[1]);
+            }
+            if (node instanceof ASTNotEq) {
+                return new Comparison(Comparison.NE, operands[0], operands[1]);
+            }
+            if (node instanceof ASTLess) {
+                return new Comparison(Comparison.LT, operands[0], operands[1]);
+            }
+            if (node instanceof ASTLessEq) {
+                return new Comparison(Comparison.LE, operands[0], operands[1]);
+            }
+            if (node instanceof ASTGreater) {
+                return new Comparison(Comparison.GT, operands[0], operands[1]);
+            }
+            if (node instanceof ASTGreaterEq) {
+                return new Comparison(Comparison.GE, operands[0], operands[1]);
+            }
+        }
+        return null;
+    }
+
+    static int typeOf(final Object value) {
+        if (value instanceof Integer) {
+            return INT;
+        }
+        if (value instanceof Long) {
+            return LONG;
+        }
+        if (value instanceof Double) {
+            return DOUBLE;
+        }
+        if (value instanceof Boolean) {
+            return BOOLEAN;
+        }
+        return -1;
+    }
+
+    /**
+     * Evaluates the node and leaves its value in the frame.
+     *
+     * @param frame the frame of the call
+     * @return one of {@link #INT}, {@link #LONG}, {@link #DOUBLE} and {@link #BOOLEAN}
+     */
+    abstract int evaluate(Frame frame);
+
+    /**
+     * Creates the frame of a call. Only valid on the expression returned by {@link #compile(Node)}.
+     *
+     * @param vars the variables
+     * @return a new frame
+     */
+    Frame newFrame(final Map<String, Object> vars) {
+        return new Frame(vars, variableNames);
+    }
+
+    /**
+     * Returns the result as a double.
+     *
+     * @param frame the frame of the call
+     * @return the result
+     */
+    double doubleValue(final Frame frame) {
+        return frame.asDouble(evaluate(frame));
+    }
+
+    /**
+     * Returns the truth value of the result as OGNL defines it.
+     *
+     * @param frame the frame of the call
+     * @return {@code false} for false and zero, otherwise {@code true}
+     */
+    boolean booleanValue(final Frame frame) {
+        return frame.asBoolean(evaluate(frame));
+    }
+
+    /**
+     * Returns the result boxed in the type OGNL would have produced.
+     *
+     * @param frame the frame of the call
+     * @return an Integer, Long, Double or Boolean
+     */
+    Object value(final Frame frame) {
+        switch (evaluate(frame)) {
+        case INT:
+            return (int) frame.longValue;
+        case LONG:
+            return frame.longValue;
+        case DOUBLE:
+            return frame.doubleValue;
+        default:
+            return frame.longValue != 0;
+        }
+    }
+
+    static int numeric(final int type) {
+        if (type == BOOLEAN) {
+            throw UnsupportedValueException.INSTANCE;
+        }
+        return type;
+    }
+
+    static int store(final Object value, final Frame frame) {
+        if (value instanceof Integer || value instanceof Long) {
+            frame.set(((Number) value).longValue());
+        } else if (value instanceof Double) {
+            frame.set(((Double) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            frame.set(((Boolean) value).booleanValue() ? 1L : 0L);
+        } else {
+            throw UnsupportedValueException.INSTANCE;
+        }
+        return typeOf(value);
+    }
+
+    static final class Constant extends PrimitiveExpression {
+        private final int type;
+
+        private final long longValue;
+
+        private final double doubleValue;
+
+        Constant(final Object value, final int type) {
+            this.type = type;
+            if (type == DOUBLE) {
+                this.longValue = 0L;
+                this.doubleValue = ((Double) value).doubleValue();
+            } else {
+                this.longValue = type == BOOLEAN ? ((Boolean) value).booleanValue() ? 1L : 0L : ((Number) value).longValue();
+                this.doubleValue = 0.0;
+            }
+        }
+
+        @Override
+        int evaluate(final Frame frame) {
+            if (type == DOUBLE) {
+                frame.set(doubleValue);
+            } else {
+                frame.set(longValue);
+            }
+            return type;
+        }
+    }
+
+    static final class Variable extends PrimitiveExpression {
+        private final int slot;
+
+        Variable(final int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        int evaluate(final Frame frame) {
+            return store(frame.value(slot), frame);
+        }
+    }
+
+    static final class Arithmetic extends PrimitiveExpression {
+        private final char operator;
+
+        private final PrimitiveExpression[] operands;
+
+        Arithmetic(final char operator, final PrimitiveExpression[] operands) {
+            this.operator = operator;
+            this.operands = operands;
+        }
+
+        @Override
+        int evaluate(final Frame frame) {
+            int type = numeric(operands[0].evaluate(frame));
+            long longValue = frame.longValue;
+            double doubleValue = frame.doubleValue;
+            for (int i = 1; i < operands.length; i++) {
+                final int operandType = numeric(operands[i].evaluate(frame));
+                final int resultType = Math.max(type, operandType);
+                if (resultType == DOUBLE) {
+                    if (operator == '%') {
+                        throw UnsupportedValueException.INSTANCE;
+                    }
+                    doubleValue = apply(type == DOUBLE ? doubleValue : longValue, frame.asDouble(operandType));
+                } else {
+                    longValue = apply(longValue, frame.longValue);
+                    if (resultType == INT) {
+                        longValue = (int) longValue;
+                    }
+                }
+                type = resultType;
+            }
+            if (type == DOUBLE) {
+                frame.set(doubleValue);
+            } else {
+                frame.set(longValue);
+            }
+            return type;
+        }
+
+        private long apply(final long left, final long right) {
+            switch (operator) {
+            case '+':
+                return left + right;
+            case '-':
+                return left - right;
+            case '*':
+                return left * right;
+            case '/':
+                return left / right;
+            default:
+                return left % right;
+            }
+        }
+
+        private double apply(final double left, final double right) {
+            switch (operator) {
+            case '+':
+                return left + right;
+            case '-':
+                return left - right;
+            case '*':
+                return left * right;
+            default:
+                return left / right;
+            }
+        }
+    }
+
+    static final class Negate extends PrimitiveExpression {
+        private final PrimitiveExpression operand;
+
+        Negate(final PrimitiveExpression operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        int evaluate(final Frame frame) {
+            final int type = numeric(operand.evaluate(frame));
+            if (type == DOUBLE) {
+                frame.set(-frame.doubleValue);
+            } else {
+                frame.set(type == INT ? (int) -frame.longValue : -frame.longValue);
+            }
+            return type;
+        }
+    }
+
+    static final class Comparison extends PrimitiveExpression {
+        static final int EQ = 0;
+
+        static final int NE = 1;
+
+        static final int LT = 2;
+
+        static final int LE = 3;
+
+        static final int GT = 4;
+
+        static final int GE = 5;
+
+        private final int operator;
+
+        private final PrimitiveExpression left;
+
+        private final PrimitiveExpression right;
+
+        Comparison(final int operator, final PrimitiveExpression left, final PrimitiveExpression right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        int evaluate(final Frame frame) {
+            final int leftType = numeric(left.evaluate(frame));
+            final long l1 = frame.longValue;
+            final double d1 = frame.asDouble(leftType);
+            final int rightType = numeric(right.evaluate(frame));
+            final int result;
+            if (leftType == DOUBLE || rightType == DOUBLE) {
+                final double d2 = frame.asDouble(rightType);
+                if (operator <= NE && (Double.isNaN(d1) || Double.isNaN(d2))) {
+                    // OGNL treats the same Double instance as equal to itself, even NaN
+                    throw UnsupportedValueException.INSTANCE;
+                }
+                // same ordering as OgnlOps.compareWithConversion
+                result = d1 == d2 ? 0 : d1 < d2 ? -1 : 1;
+            } else {
+                result = Long.compare(l1, frame.longValue);
+            }
+            frame.set(test(result) ? 1L : 0L);
+            return BOOLEAN;
+        }
+
+        private boolean test(final int result) {
+            switch (operator) {
+            case EQ:
+                return result == 0;
+            case NE:
+                return result != 0;
+            case LT:
+                return result < 0;
+            case LE:
+                return result <= 0;
+            case GT:
+                return result > 0;
+            default:
+                return result >= 0;
+            }
+        }
+    }
+
+    static final class Not extends PrimitiveExpression {
+        private final PrimitiveExpression operand;
+
+        Not(final PrimitiveExpression operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        int evaluate(final Frame frame) {
+            frame.set(frame.asBoolean(operand.evaluate(frame)) ? 0L : 1L);
+            return BOOLEAN;
+        }
+    }
+
+    /**
+     * OGNL's {@code &&} and {@code ||} return the deciding operand rather than a boolean,
+     * so the value of the last evaluated operand is left in the frame.
+     */
+    static final class Logical extends PrimitiveExpression {
+        private final boolean and;
+
+        private final PrimitiveExpression[] operands;
+
+        Logical(final boolean and, final PrimitiveExpression[] operands) {
+            this.and = and;
+            this.operands = operands;
+        }
+
+        @Override
+        int evaluate(final Frame frame) {
+            int type = BOOLEAN;
+            for (final PrimitiveExpression operand : operands) {
+                type = operand.evaluate(frame);
+                if (frame.asBoolean(type) != and) {
+                    break;
+                }
+            }
+            return type;
+        }
+    }
+
+    static final class Conditional extends PrimitiveExpression {
+        private final PrimitiveExpression condition;
+
+        private final PrimitiveExpression whenTrue;
+
+        private final PrimitiveExpression whenFalse;
+
+        Conditional(final PrimitiveExpression condition, final PrimitiveExpression whenTrue, final PrimitiveExpression whenFalse) {
+            this.condition = condition;
+            this.whenTrue = whenTrue;
+            this.whenFalse = whenFalse;
+        }
+
+        @Override
+        int evaluate(final Frame frame) {
+            return frame.asBoolean(condition.evaluate(frame)) ? whenTrue.evaluate(frame) : whenFalse.evaluate(frame);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.script.ognl;
+
+import java.lang.reflect.Member;
+import java.lang.reflect.Modifier;
+
+import ognl.AbstractMemberAccess;
+import ognl.OgnlContext;
+
+/**
+ * Member access policy for contexts created by {@link OgnlEngine}.
+ * <p>
+ * Like the default OGNL context, only public members are accessible.
+ * Each check also charges the {@link EvaluationBudget} of the running evaluation, if any.
+ */
+class ScriptMemberAccess extends AbstractMemberAccess {
+
+    @Override
+    public boolean isAccessible(final OgnlContext context, final Object target, final Member member, final String propertyName) {
+        final Object budget = context.get(EvaluationBudget.CONTEXT_KEY);
+        if (budget instanceof EvaluationBudget) {
+            ((EvaluationBudget) budget).step();
+        }
+        return isPermitted(target, member);
+    }
+
+    /**
+     * Returns whether scripts may access the member.
+     *
+     * @param target the object whose member is accessed, or {@code null} for static members
+     * @param member the member
+     * @return {@code true} if the member is public
+     */
+    protected boolean isPermitted(final Object target, final Member member) {
+        return Modifier.isPublic(member.getModifiers());
+    }
+}
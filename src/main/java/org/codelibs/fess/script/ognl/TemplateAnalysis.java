@@ -0,0 +1,102 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.script.ognl;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * What a parsed OGNL template references, as returned by {@link OgnlEngine#analyze(String)}.
+ * <p>
+ * Variables are the parameter names the template reads from the parameter map. When the template
+ * accesses the parameter map in a way whose keys cannot be known before evaluation, such as
+ * {@code #root} or a computed index, {@link #isComplete()} returns {@code false} and the variable
+ * names are a lower bound.
+ */
+public class TemplateAnalysis {
+
+    private final Set<String> variableNames;
+
+    private final Set<String> componentNames;
+
+    private final Set<String> staticClassNames;
+
+    private final Set<String> staticMethodNames;
+
+    private final boolean complete;
+
+    TemplateAnalysis(final Set<String> variableNames, final Set<String> componentNames, final Set<String> staticClassNames,
+            final Set<String> staticMethodNames, final boolean complete) {
+        this.variableNames = Collections.unmodifiableSet(new LinkedHashSet<>(variableNames));
+        this.componentNames = Collections.unmodifiableSet(new LinkedHashSet<>(componentNames));
+        this.staticClassNames = Collections.unmodifiableSet(new LinkedHashSet<>(staticClassNames));
+        this.staticMethodNames = Collections.unmodifiableSet(new LinkedHashSet<>(staticMethodNames));
+        this.complete = complete;
+    }
+
+    /**
+     * Returns the parameter names the template reads, in order of appearance.
+     *
+     * @return the variable names, excluding {@code container}
+     */
+    public Set<String> getVariableNames() {
+        return variableNames;
+    }
+
+    /**
+     * Returns the names of the DI components looked up with a literal name, through
+     * {@code container.getComponent(...)} or {@code ComponentUtil.getComponent(...)}.
+     *
+     * @return the component names
+     */
+    public Set<String> getComponentNames() {
+        return componentNames;
+    }
+
+    /**
+     * Returns the classes referenced by static method calls, static fields and constructors.
+     *
+     * @return the class names as written in the template
+     */
+    public Set<String> getStaticClassNames() {
+        return staticClassNames;
+    }
+
+    /**
+     * Returns the static methods called by the template.
+     *
+     * @return the method names qualified by their class name, such as {@code java.lang.Math.max}
+     */
+    public Set<String> getStaticMethodNames() {
+        return staticMethodNames;
+    }
+
+    /**
+     * Returns whether {@link #getVariableNames()} contains every parameter the template can read.
+     *
+     * @return {@code true} if the parameter map can safely be pruned to the variable names
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Override
+    public String toString() {
+        return "TemplateAnalysis [variableNames=" + variableNames + ", componentNames=" + componentNames + ", staticClassNames="
+                + staticClassNames + ", staticMethodNames=" + staticMethodNames + ", complete=" + complete + "]";
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.script.ognl;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import ognl.ASTChain;
+import ognl.ASTConst;
+import ognl.ASTCtor;
+import ognl.ASTEval;
+import ognl.ASTMethod;
+import ognl.ASTProject;
+import ognl.ASTProperty;
+import ognl.ASTRootVarRef;
+import ognl.ASTSelect;
+import ognl.ASTSelectFirst;
+import ognl.ASTSelectLast;
+import ognl.ASTStaticField;
+import ognl.ASTStaticMethod;
+import ognl.ASTThisVarRef;
+import ognl.Node;
+
+/**
+ * Computes the {@link TemplateAnalysis} of a parsed template.
+ * <p>
+ * The tree is walked while tracking whether each node is evaluated against the parameter map.
+ * Method arguments, constructor arguments and index expressions are evaluated against the root,
+ * while projection, selection and lambda bodies are evaluated against their elements.
+ */
+class TemplateAnalyzer {
+
+    private static final String COMPONENT_UTIL_CLASS = "org.codelibs.fess.util.ComponentUtil";
+
+    private static final String GET_COMPONENT = "getComponent";
+
+    private final Set<String> variableNames = new LinkedHashSet<>();
+
+    private final Set<String> componentNames = new LinkedHashSet<>();
+
+    private final Set<String> staticClassNames = new LinkedHashSet<>();
+
+    private final Set<String> staticMethodNames = new LinkedHashSet<>();
+
+    private boolean complete = true;
+
+    /**
+     * Analyzes the parsed template.
+     *
+     * @param tree the parsed template
+     * @return the analysis
+     */
+    TemplateAnalysis analyze(final Node tree) {
+        visit(tree, true);
+        return new TemplateAnalysis(variableNames, componentNames, staticClassNames, staticMethodNames, complete);
+    }
+
+    private void visit(final Node node, final boolean onRoot) {
+        if (node instanceof ASTChain) {
+            visitChain(node, onRoot);
+        } else if (node instanceof ASTProperty) {
+            visitProperty((ASTProperty) node, onRoot);
+        } else if (node instanceof ASTMethod) {
+            if (onRoot) {
+                // a method of the parameter map itself, such as get(name)
+                complete = false;
+            }
+            visitChildren(node, true);
+        } else if (node instanceof ASTStaticMethod) {
+            final String className = ExpressionNodes.getClassName(node);
+            final String methodName = ExpressionNodes.getStaticMemberName(node);
+            if (className != null && methodName != null) {
+                staticClassNames.add(className);
+                staticMethodNames.add(className + "." + methodName);
+                if (COMPONENT_UTIL_CLASS.equals(className) && GET_COMPONENT.equals(methodName)) {
+                    addComponentName(node);
+                }
+            }
+            visitChildren(node, true);
+        } else if (node instanceof ASTStaticField || node instanceof ASTCtor) {
+            final String className = ExpressionNodes.getClassName(node);
+            if (className != null) {
+                staticClassNames.add(className);
+            }
+            visitChildren(node, true);
+        } else if (node instanceof ASTRootVarRef || (node instanceof ASTThisVarRef && onRoot) || node instanceof ASTEval) {
+            complete = false;
+            visitChildren(node, onRoot);
+        } else if (node instanceof ASTProject || node instanceof ASTSelect || node instanceof ASTSelectFirst
+                || node instanceof ASTSelectLast || node instanceof ParallelCollectionNode) {
+            visitChildren(node, false);
+        } else if (node instanceof FusedPipelineNode) {
+            final int stageCount = ((FusedPipelineNode) node).getStageCount();
+            for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+                // stages are evaluated against elements, the operands of in against the source
+                visit(node.jjtGetChild(i), i >= stageCount && onRoot);
+            }
+        } else if (node instanceof ASTConst && ((ASTConst) node).getValue() instanceof Node) {
+            // lambda body, evaluated against its argument
+            visit((Node) ((ASTConst) node).getValue(), false);
+        } else {
+            visitChildren(node, onRoot);
+        }
+    }
+
+    private void visitChildren(final Node node, final boolean onRoot) {
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            visit(node.jjtGetChild(i), onRoot);
+        }
+    }
+
+    private void visitChain(final Node chain, final boolean onRoot) {
+        boolean current = onRoot;
+        final int count = chain.jjtGetNumChildren();
+        for (int i = 0; i < count; i++) {
+            final Node child = chain.jjtGetChild(i);
+            if (child instanceof ASTRootVarRef || (child instanceof ASTThisVarRef && current)) {
+                current = true;
+                if (i == count - 1) {
+                    complete = false;
+                }
+                continue;
+            }
+            if (current && child instanceof ASTProperty && BindingMap.CONTAINER_KEY.equals(getPropertyName(child)) && i + 1 < count
+                    && chain.jjtGetChild(i + 1) instanceof ASTMethod
+                    && GET_COMPONENT.equals(((ASTMethod) chain.jjtGetChild(i + 1)).getMethodName())) {
+                addComponentName(chain.jjtGetChild(i + 1));
+            }
+            visit(child, current);
+            current = false;
+        }
+    }
+
+    private void visitProperty(final ASTProperty node, final boolean onRoot) {
+        if (!node.isIndexedAccess()) {
+            final String name = getPropertyName(node);
+            if (onRoot) {
+                if (name == null || CachedExpression.MAP_PSEUDO_PROPERTIES.contains(name)) {
+                    complete = false;
+                } else if (!BindingMap.CONTAINER_KEY.equals(name)) {
+                    variableNames.add(name);
+                }
+            }
+            return;
+        }
+        if (onRoot) {
+            final String name = getPropertyName(node);
+            if (name == null) {
+                complete = false;
+            } else if (!BindingMap.CONTAINER_KEY.equals(name)) {
+                variableNames.add(name);
+            }
+        }
+        visitChildren(node, true);
+    }
+
+    private void addComponentName(final Node method) {
+        if (method.jjtGetNumChildren() == 1 && method.jjtGetChild(0) instanceof ASTConst
+                && ((ASTConst) method.jjtGetChild(0)).getValue() instanceof String) {
+            componentNames.add((String) ((ASTConst) method.jjtGetChild(0)).getValue());
+        }
+    }
+
+    private static String getPropertyName(final Node node) {
+        if (node.jjtGetNumChildren() == 1 && node.jjtGetChild(0) instanceof ASTConst) {
+            final Object value = ((ASTConst) node.jjtGetChild(0)).getValue();
+            return value instanceof String ? (String) value : null;
+        }
+        return null;
+    }
+}
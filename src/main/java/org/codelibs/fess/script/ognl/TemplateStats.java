@@ -0,0 +1,180 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.script.ognl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Evaluation statistics of one OGNL template.
+ * <p>
+ * Latencies are recorded in a log-linear histogram with four sub-buckets per power of two,
+ * so percentiles are accurate to within about 20% while recording stays lock-free.
+ */
+public class TemplateStats {
+
+    private static final int SUB_BUCKET_BITS = 2;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private final String template;
+
+    private final LongAdder callCount = new LongAdder();
+
+    private final LongAdder failureCount = new LongAdder();
+
+    private final LongAdder parseTime = new LongAdder();
+
+    private final LongAdder evaluationTime = new LongAdder();
+
+    private final LongAccumulator maxEvaluationTime = new LongAccumulator(Math::max, 0L);
+
+    private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKET_COUNT);
+
+    TemplateStats(final String template) {
+        this.template = template;
+    }
+
+    void recordParse(final long nanos) {
+        parseTime.add(nanos);
+    }
+
+    void recordEvaluation(final long nanos) {
+        callCount.increment();
+        evaluationTime.add(nanos);
+        maxEvaluationTime.accumulate(nanos);
+        buckets.incrementAndGet(bucketIndex(nanos));
+    }
+
+    void recordFailure() {
+        failureCount.increment();
+    }
+
+    static int bucketIndex(final long nanos) {
+        if (nanos < SUB_BUCKET_COUNT) {
+            return (int) Math.max(nanos, 0L);
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        final int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long bucketUpperBound(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        final long subBucket = index % SUB_BUCKET_COUNT;
+        return ((SUB_BUCKET_COUNT + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * Returns the template these statistics belong to.
+     *
+     * @return the OGNL template
+     */
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * Returns the number of evaluations.
+     *
+     * @return the call count
+     */
+    public long getCallCount() {
+        return callCount.sum();
+    }
+
+    /**
+     * Returns the number of failed parses and evaluations.
+     *
+     * @return the failure count
+     */
+    public long getFailureCount() {
+        return failureCount.sum();
+    }
+
+    /**
+     * Returns the total time spent looking up and parsing the template.
+     *
+     * @return the parse time in nanoseconds
+     */
+    public long getParseTime() {
+        return parseTime.sum();
+    }
+
+    /**
+     * Returns the total time spent evaluating the template.
+     *
+     * @return the evaluation time in nanoseconds
+     */
+    public long getEvaluationTime() {
+        return evaluationTime.sum();
+    }
+
+    /**
+     * Returns the longest evaluation time.
+     *
+     * @return the maximum evaluation time in nanoseconds
+     */
+    public long getMaxEvaluationTime() {
+        return maxEvaluationTime.get();
+    }
+
+    /**
+     * Returns the mean evaluation time.
+     *
+     * @return the mean evaluation time in nanoseconds
+     */
+    public long getMeanEvaluationTime() {
+        final long count = getCallCount();
+        return count == 0 ? 0L : getEvaluationTime() / count;
+    }
+
+    /**
+     * Returns the evaluation time at the given percentile.
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return the upper bound of the evaluation time in nanoseconds
+     */
+    public long getPercentile(final double percentile) {
+        long total = 0L;
+        for (int i = 0; i < buckets.length(); i++) {
+            total += buckets.get(i);
+        }
+        if (total == 0L) {
+            return 0L;
+        }
+        final long threshold = Math.max(1L, (long) Math.ceil(total * Math.min(percentile, 100.0) / 100.0));
+        long count = 0L;
+        for (int i = 0; i < buckets.length(); i++) {
+            count += buckets.get(i);
+            if (count >= threshold) {
+                return Math.min(bucketUpperBound(i), getMaxEvaluationTime());
+            }
+        }
+        return getMaxEvaluationTime();
+    }
+
+    @Override
+    public String toString() {
+        return "calls=" + getCallCount() + ", failures=" + getFailureCount() + ", parse=" + getParseTime() / 1000L + "us, mean="
+                + getMeanEvaluationTime() / 1000L + "us, p50=" + getPercentile(50) / 1000L + "us, p99=" + getPercentile(99) / 1000L
+                + "us, max=" + getMaxEvaluationTime() / 1000L + "us";
+    }
+}
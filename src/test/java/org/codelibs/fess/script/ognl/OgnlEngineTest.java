@@ -18,15 +18,39 @@ package org.codelibs.fess.script.ognl;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInfo;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
 import org.codelibs.fess.exception.JobProcessingException;
 import org.codelibs.fess.util.ComponentUtil;
 import org.codelibs.fess.script.ognl.UnitScriptTestCase;
 
+import ognl.ASTConst;
+import ognl.ASTDivide;
+import ognl.ASTList;
+import ognl.ASTStaticMethod;
+import ognl.Node;
+import ognl.Ognl;
+import ognl.OgnlContext;
+import ognl.OgnlOps;
+
 public class OgnlEngineTest extends UnitScriptTestCase {
     public OgnlEngine ognlEngine;
 
@@ -852,6 +876,1190 @@ public class OgnlEngineTest extends UnitScriptTestCase {
         assertEquals(5, ognlEngine.evaluate("a >> 1", params));
     }
 
+    // ========================================
+    // Expression Cache Tests
+    // ========================================
+
+    @Test
+    public void test_evaluate_expressionCache() {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("x", 5);
+
+        assertEquals(0, ognlEngine.getCacheSize());
+        assertEquals(6, ognlEngine.evaluate("x + 1", params));
+        assertEquals(1L, ognlEngine.getCacheMissCount());
+        assertEquals(0L, ognlEngine.getCacheHitCount());
+
+        params.put("x", 10);
+        assertEquals(11, ognlEngine.evaluate("x + 1", params));
+        assertEquals(1L, ognlEngine.getCacheMissCount());
+        assertEquals(1L, ognlEngine.getCacheHitCount());
+        assertEquals(1, ognlEngine.getCacheSize());
+
+        ognlEngine.clearCache();
+        assertEquals(0, ognlEngine.getCacheSize());
+    }
+
+    @Test
+    public void test_evaluate_expressionCacheEviction() {
+        final Map<String, Object> params = new HashMap<>();
+        ognlEngine.setMaxCacheSize(2);
+
+        assertEquals(1, ognlEngine.evaluate("1", params));
+        assertEquals(2, ognlEngine.evaluate("2", params));
+        assertEquals(1, ognlEngine.evaluate("1", params));
+        assertEquals(3, ognlEngine.evaluate("3", params));
+
+        assertEquals(2, ognlEngine.getCacheSize());
+        assertEquals(1L, ognlEngine.getCacheEvictionCount());
+        // "1" was used after it was cached, so "2" is evicted
+        final long missCount = ognlEngine.getCacheMissCount();
+        assertEquals(1, ognlEngine.evaluate("1", params));
+        assertEquals(missCount, ognlEngine.getCacheMissCount());
+        assertEquals(2, ognlEngine.evaluate("2", params));
+        assertEquals(missCount + 1, ognlEngine.getCacheMissCount());
+    }
+
+    @Test
+    public void test_evaluate_expressionCacheDisabled() {
+        final Map<String, Object> params = new HashMap<>();
+        ognlEngine.setMaxCacheSize(0);
+
+        assertEquals(3, ognlEngine.evaluate("1 + 2", params));
+        assertEquals(3, ognlEngine.evaluate("1 + 2", params));
+        assertEquals(0, ognlEngine.getCacheSize());
+    }
+
+    @Test
+    public void test_evaluate_parseFailureCache() {
+        final Map<String, Object> params = new HashMap<>();
+
+        for (int i = 0; i < 3; i++) {
+            assertNull(ognlEngine.evaluate("a +", params));
+        }
+        assertEquals(1, ognlEngine.getParseFailureCacheSize());
+        // Only the first attempt is parsed and reported
+        assertEquals(1L, ognlEngine.failureReporter.getFailureCount("a +"));
+        assertEquals(1L, ognlEngine.getCacheMissCount());
+
+        ognlEngine.invalidate("a +");
+        assertEquals(0, ognlEngine.getParseFailureCacheSize());
+        assertNull(ognlEngine.evaluate("a +", params));
+        assertEquals(2L, ognlEngine.failureReporter.getFailureCount("a +"));
+
+        ognlEngine.clearCache();
+        assertEquals(0, ognlEngine.getParseFailureCacheSize());
+
+        // the template just added is never the one dropped
+        ognlEngine.setMaxParseFailureCacheSize(2);
+        for (final String template : Arrays.asList("b +", "c +", "d +", "e +")) {
+            assertNull(ognlEngine.evaluate(template, params));
+            assertNull(ognlEngine.evaluate(template, params));
+            assertEquals(template, 1L, ognlEngine.failureReporter.getFailureCount(template));
+        }
+        assertEquals(2, ognlEngine.getParseFailureCacheSize());
+    }
+
+    // ========================================
+    // Compilation Tests
+    // ========================================
+
+    @Test
+    public void test_evaluate_compileThreshold() throws Exception {
+        final Map<String, Object> params = new HashMap<>();
+        ognlEngine.setCompileThreshold(2);
+
+        for (int i = 0; i < 5; i++) {
+            params.put("x", i);
+            assertEquals(i * 2, ognlEngine.evaluate("x * 2", params));
+        }
+        assertNotNull("template should be compiled", ognlEngine.getExpression("x * 2").getAccessor());
+        assertFalse(ognlEngine.compilationDisabled.get());
+    }
+
+    @Test
+    public void test_evaluate_compileFallback() {
+        final Map<String, Object> params = new HashMap<>();
+        ognlEngine.setCompileThreshold(1);
+
+        params.put("value", "abc");
+        assertEquals(Boolean.FALSE, ognlEngine.evaluate("value.empty", params));
+
+        // The accessor compiled for a String fails on a list; the failure is reported instead of running the script again
+        params.put("value", new ArrayList<>());
+        assertNull(ognlEngine.evaluate("value.empty", params));
+        assertEquals(1L, ognlEngine.failureReporter.getFailureCount("value.empty"));
+
+        // and the template is interpreted from then on
+        assertEquals(Boolean.TRUE, ognlEngine.evaluate("value.empty", params));
+    }
+
+    @Test
+    public void test_evaluate_compileUnsupported() throws Exception {
+        final Map<String, Object> params = new HashMap<>();
+        final List<Object> calls = new ArrayList<>();
+        ognlEngine.setCompileThreshold(1);
+
+        // compiling evaluates the tree, so templates calling methods stay interpreted
+        params.put("calls", calls);
+        params.put("value", "abc");
+        for (int i = 0; i < 3; i++) {
+            assertEquals(3, ognlEngine.evaluate("calls.add(value), value.length()", params));
+        }
+        assertEquals(3, calls.size());
+        assertNull(ognlEngine.getExpression("calls.add(value), value.length()").getAccessor());
+
+        // a template OGNL cannot generate code for is interpreted without disabling compilation
+        params.put("value", "3");
+        assertEquals(6.0, ognlEngine.evaluate("value * 2", params));
+        assertEquals(6.0, ognlEngine.evaluate("value * 2", params));
+        assertNull(ognlEngine.getExpression("value * 2").getAccessor());
+        assertFalse(ognlEngine.compilationDisabled.get());
+    }
+
+    @Test
+    public void test_evaluate_compileOptimizedTree() throws Exception {
+        final Map<String, Object> params = new HashMap<>();
+        ognlEngine.setCompileThreshold(1);
+
+        params.put("x", 2);
+        assertEquals(8, ognlEngine.evaluate("x * (1 + 3)", params));
+        final CachedExpression expression = ognlEngine.getExpression("x * (1 + 3)");
+        assertNotNull(expression.getAccessor());
+        assertNull("the cached tree stays interpreted", expression.getTree().getAccessor());
+        assertEquals("x * 4", expression.getTree().toString());
+    }
+
+    // ========================================
+    // Binding Map Tests
+    // ========================================
+
+    @Test
+    public void test_evaluate_assignmentDoesNotModifyParamMap() {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("x", 1);
+
+        assertEquals(5, ognlEngine.evaluate("x = 5, x", params));
+        assertEquals(1, params.get("x"));
+        assertEquals(7, ognlEngine.evaluate("y = 7, y", params));
+        assertFalse("y should not be added", params.containsKey("y"));
+        assertFalse("container should not be added", params.containsKey("container"));
+    }
+
+    @Test
+    public void test_bindingMap() {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("a", "A");
+        params.put("container", "shadowed");
+        final Object container = new Object();
+        final BindingMap bindingMap = new BindingMap(params, () -> container);
+
+        assertEquals("A", bindingMap.get("a"));
+        assertSame(container, bindingMap.get("container"));
+        assertEquals(2, bindingMap.size());
+
+        bindingMap.put("a", "B");
+        bindingMap.put("b", "C");
+        assertEquals("B", bindingMap.get("a"));
+        assertEquals("C", bindingMap.get("b"));
+        assertEquals(3, bindingMap.size());
+
+        bindingMap.remove("a");
+        assertNull("a should be removed", bindingMap.get("a"));
+        assertFalse("a should be removed", bindingMap.containsKey("a"));
+
+        bindingMap.clear();
+        assertTrue("binding map should be empty", bindingMap.isEmpty());
+        assertEquals("A", params.get("a"));
+        assertEquals(2, params.size());
+    }
+
+    // ========================================
+    // Context Pool Tests
+    // ========================================
+
+    @Test
+    public void test_evaluate_contextVariablesNotShared() {
+        final Map<String, Object> params = new HashMap<>();
+
+        assertEquals(10, ognlEngine.evaluate("#v = 10, #v", params));
+        // Variables from a previous evaluation must not leak through the reused context
+        assertNull(ognlEngine.evaluate("#v", params));
+    }
+
+    @Test
+    public void test_evaluate_concurrent() throws Exception {
+        final int threadCount = 8;
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        final Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int offset = t * 1000;
+            threads[t] = new Thread(() -> {
+                try {
+                    final Map<String, Object> params = new HashMap<>();
+                    for (int i = 0; i < 200; i++) {
+                        params.put("x", offset + i);
+                        assertEquals(offset + i + 1, ognlEngine.evaluate("#y = x, #y + 1", params));
+                    }
+                } catch (final Throwable e) {
+                    errors.add(e);
+                }
+            });
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue("errors: " + errors, errors.isEmpty());
+    }
+
+    @Test
+    public void test_bindingMap_lazyContainer() {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("a", "A");
+        final int[] lookupCount = new int[1];
+        final BindingMap bindingMap = new BindingMap(params, () -> {
+            lookupCount[0]++;
+            return "container";
+        });
+
+        assertEquals("A", bindingMap.get("a"));
+        assertEquals(2, bindingMap.size());
+        assertEquals(Set.of("a", "container"), bindingMap.keySet());
+        assertEquals(0, lookupCount[0]);
+        assertEquals("container", bindingMap.get("container"));
+        assertEquals(1, lookupCount[0]);
+    }
+
+    // ========================================
+    // Batch Evaluation Tests
+    // ========================================
+
+    @Test
+    public void test_evaluateBatch() {
+        final List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            final Map<String, Object> params = new HashMap<>();
+            params.put("x", i);
+            rows.add(params);
+        }
+        rows.get(2).put("x", "bad");
+
+        final List<Object> results = ognlEngine.evaluateBatch("#y = x * 10, #y + 1", rows);
+        assertEquals(5, results.size());
+        assertEquals(1, results.get(0));
+        assertEquals(11, results.get(1));
+        assertNull(results.get(2));
+        assertEquals(31, results.get(3));
+        assertEquals(41, results.get(4));
+        assertEquals(1L, ognlEngine.getCacheMissCount());
+    }
+
+    @Test
+    public void test_evaluateBatch_invalidTemplate() {
+        final List<Map<String, Object>> rows = Arrays.asList(new HashMap<>(), new HashMap<>());
+
+        assertEquals(Arrays.asList(null, null), ognlEngine.evaluateBatch("a +", rows));
+        assertEquals(Arrays.asList(null, null), ognlEngine.evaluateBatch("", rows));
+    }
+
+    @Test
+    public void test_evaluateColumns() {
+        final Map<String, List<?>> columns = new HashMap<>();
+        columns.put("title", Arrays.asList("a", "b", "c"));
+        columns.put("score", Arrays.asList(1, 2, 3));
+
+        final List<Object> results = ognlEngine.evaluateColumns("title + score", columns);
+        assertEquals(Arrays.asList("a1", "b2", "c3"), results);
+
+        columns.put("other", Arrays.asList(1));
+        try {
+            ognlEngine.evaluateColumns("title", columns);
+            fail("Should throw IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    // ========================================
+    // Multi-Expression Evaluation Tests
+    // ========================================
+
+    @Test
+    public void test_evaluateAll() {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("title", "Fess");
+        params.put("score", 5);
+
+        final Map<String, String> templates = new LinkedHashMap<>();
+        templates.put("upper", "title.toUpperCase()");
+        templates.put("boost", "score * 2");
+        templates.put("boost2", "score * 2");
+        templates.put("assign", "score = 100");
+        templates.put("score", "score");
+        templates.put("invalid", "a +");
+        templates.put("blank", "");
+
+        final Map<String, Object> results = ognlEngine.evaluateAll(templates, params);
+        assertEquals(Arrays.asList("upper", "boost", "boost2", "assign", "score", "invalid", "blank"),
+                new ArrayList<>(results.keySet()));
+        assertEquals("FESS", results.get("upper"));
+        assertEquals(10, results.get("boost"));
+        assertEquals(10, results.get("boost2"));
+        assertEquals(100, results.get("assign"));
+        // Assignments in one template are not visible to the others
+        assertEquals(5, results.get("score"));
+        assertNull(results.get("invalid"));
+        assertNull(results.get("blank"));
+        assertEquals(5, params.get("score"));
+    }
+
+    // ========================================
+    // Template Statistics Tests
+    // ========================================
+
+    @Test
+    public void test_evaluate_statsDisabled() {
+        final Map<String, Object> params = new HashMap<>();
+
+        assertEquals(2, ognlEngine.evaluate("1 + 1", params));
+        assertTrue("no stats should be recorded", ognlEngine.getTemplateStats().isEmpty());
+    }
+
+    @Test
+    public void test_evaluate_stats() {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("x", 3);
+        ognlEngine.setStatsEnabled(true);
+
+        for (int i = 0; i < 10; i++) {
+            ognlEngine.evaluate("x * 2", params);
+        }
+        ognlEngine.evaluate("10 / 0", params);
+        ognlEngine.evaluate("a +", params);
+
+        final TemplateStats stats = ognlEngine.getTemplateStats().get("x * 2");
+        assertNotNull(stats);
+        assertEquals(10L, stats.getCallCount());
+        assertEquals(0L, stats.getFailureCount());
+        assertTrue("evaluation time should be recorded", stats.getEvaluationTime() > 0L);
+        assertTrue("p50 should not exceed max", stats.getPercentile(50) <= stats.getMaxEvaluationTime());
+        assertTrue("p99 should not be below p50", stats.getPercentile(99) >= stats.getPercentile(50));
+
+        assertEquals(1L, ognlEngine.getTemplateStats().get("10 / 0").getFailureCount());
+        assertEquals(1L, ognlEngine.getTemplateStats().get("a +").getFailureCount());
+
+        ognlEngine.clearTemplateStats();
+        assertTrue("stats should be cleared", ognlEngine.getTemplateStats().isEmpty());
+    }
+
+    @Test
+    public void test_templateStats_percentile() {
+        final TemplateStats stats = new TemplateStats("x");
+        for (int i = 1; i <= 100; i++) {
+            stats.recordEvaluation(i * 1000L);
+        }
+
+        assertEquals(100L, stats.getCallCount());
+        assertEquals(50_500L, stats.getMeanEvaluationTime());
+        assertEquals(100_000L, stats.getMaxEvaluationTime());
+        final long p50 = stats.getPercentile(50);
+        assertTrue("p50=" + p50, p50 >= 50_000L && p50 <= 60_000L);
+        assertEquals(100_000L, stats.getPercentile(100));
+    }
+
+    // ========================================
+    // Failure Reporting Tests
+    // ========================================
+
+    @Test
+    public void test_evaluate_failureCount() {
+        final Map<String, Object> params = new HashMap<>();
+        ognlEngine.setFailureLogLimit(1);
+
+        for (int i = 0; i < 10; i++) {
+            assertNull(ognlEngine.evaluate("10 / 0", params));
+        }
+        assertEquals(10L, ognlEngine.failureReporter.getFailureCount("10 / 0"));
+        assertEquals(0L, ognlEngine.failureReporter.getFailureCount("1 + 1"));
+    }
+
+    @Test
+    public void test_failureReporter_render() {
+        final FailureReporter reporter = new FailureReporter(LogManager.getLogger(OgnlEngine.class), 1, 1000L, 10, 2, 5);
+        final Map<String, Object> params = new LinkedHashMap<>();
+        params.put("a", "1234567890");
+        params.put("b", null);
+        params.put("c", "x");
+
+        assertEquals("{a=12345...(10 chars), b=null, ...(1 more)}", reporter.render(params));
+        assertEquals("{}", reporter.render(new HashMap<>()));
+        assertEquals("-", reporter.render(null));
+    }
+
+    // ========================================
+    // Expression Nodes Tests
+    // ========================================
+
+    @Test
+    public void test_expressionNodes_staticReferences() throws Exception {
+        final List<String> references = new ArrayList<>();
+        ExpressionNodes.walk((Node) Ognl.parseExpression("@Math@max(1, @java.lang.Integer@MAX_VALUE) + new java.util.ArrayList()"),
+                node -> {
+                    final String className = ExpressionNodes.getClassName(node);
+                    if (className != null) {
+                        references.add(className + "#" + ExpressionNodes.getStaticMemberName(node));
+                    }
+                });
+
+        assertEquals(Arrays.asList("Math#max", "java.lang.Integer#MAX_VALUE", "java.util.ArrayList#null"), references);
+    }
+
+    // ========================================
+    // Warm-up Tests
+    // ========================================
+
+    @Test
+    public void test_warmUp() throws Exception {
+        final Path file = Files.createTempFile("ognl-warmup", ".txt");
+        try {
+            Files.write(file, Arrays.asList("title.toUpperCase()", "", "a +"));
+            ognlEngine.setWarmUpFile(file.toString());
+            ognlEngine.addWarmUpTemplate("1 + 2");
+            ognlEngine.setWarmUpIterations(3);
+            ognlEngine.setStatsEnabled(true);
+
+            ognlEngine.warmUp();
+
+            assertEquals(2, ognlEngine.getCacheSize());
+            assertEquals(1, ognlEngine.getParseFailureCacheSize());
+            assertEquals(0L, ognlEngine.failureReporter.getFailureCount("title.toUpperCase()"));
+            // Warm-up evaluations are not counted as calls
+            assertEquals(0L, ognlEngine.getTemplateStats().get("1 + 2").getCallCount());
+
+            final Map<String, Object> params = new HashMap<>();
+            params.put("title", "fess");
+            assertEquals("FESS", ognlEngine.evaluate("title.toUpperCase()", params));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void test_warmUp_guarded() {
+        ognlEngine.setSandboxEnabled(true);
+        ognlEngine.addWarmUpTemplate("@java.lang.System@setProperty('ognl.test.warmup', 'x')");
+        ognlEngine.addWarmUpTemplate("#f = :[#f(#this)], #f(1)");
+        ognlEngine.addWarmUpTemplate("1 + 2");
+        ognlEngine.setWarmUpIterations(1);
+        try {
+            ognlEngine.warmUp();
+
+            assertNull(System.getProperty("ognl.test.warmup"));
+            assertEquals(3, ognlEngine.getCacheSize());
+        } finally {
+            System.clearProperty("ognl.test.warmup");
+        }
+    }
+
+    @Test
+    public void test_warmUp_missingFile() {
+        ognlEngine.setWarmUpFile("/no/such/ognl-warmup.txt");
+        ognlEngine.addWarmUpTemplate("1 + 2");
+
+        ognlEngine.warmUp();
+        assertEquals(1, ognlEngine.getCacheSize());
+    }
+
+    @Test
+    public void test_storeTemplates() throws Exception {
+        final Path dir = Files.createTempDirectory("ognl-cache");
+        try {
+            final Map<String, Object> params = new HashMap<>();
+            ognlEngine.setCacheDirectory(dir.toString());
+            ognlEngine.evaluate("1 + 2", params);
+            ognlEngine.evaluate("'multi\nline'", params);
+            ognlEngine.evaluate("@java.lang.System@setProperty('ognl.test.stored', 'x')", params);
+            System.clearProperty("ognl.test.stored");
+            ognlEngine.storeTemplates();
+
+            final OgnlEngine restarted = new OgnlEngine();
+            restarted.setCacheDirectory(dir.toString());
+            final List<String> templates = restarted.loadTemplates();
+            assertEquals(3, templates.size());
+            assertTrue("templates: " + templates, templates.contains("'multi\nline'"));
+
+            restarted.setWarmUpIterations(1);
+            restarted.warmUp();
+            assertEquals(3, restarted.getCacheSize());
+            // Stored templates are parsed, not executed
+            assertNull(System.getProperty("ognl.test.stored"));
+        } finally {
+            System.clearProperty("ognl.test.stored");
+            try (Stream<Path> paths = Files.list(dir)) {
+                paths.forEach(path -> path.toFile().delete());
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    // ========================================
+    // Optimization Tests
+    // ========================================
+
+    @Test
+    public void test_expressionOptimizer() throws Exception {
+        assertEquals("3", optimize("1 + 2").toString());
+        assertEquals("16", optimize("@Math@max(10, 16)").toString());
+        assertEquals(Integer.MAX_VALUE, ((ASTConst) optimize("@Integer@MAX_VALUE")).getValue());
+        assertEquals("\"prefix-x\" + url", optimize("'prefix-' + 'x' + url").toString());
+        assertEquals("a", optimize("1 < 2 ? a : b").toString());
+
+        // Impure, failing and mutable expressions are not folded
+        assertTrue(optimize("@Math@random()") instanceof ASTStaticMethod);
+        assertTrue(optimize("@Integer@getInteger('p')") instanceof ASTStaticMethod);
+        assertTrue(optimize("@Boolean@getBoolean('p')") instanceof ASTStaticMethod);
+        assertEquals("42", optimize("@Integer@parseInt('42')").toString());
+        assertTrue(optimize("10 / 0") instanceof ASTDivide);
+        assertTrue(optimize("{1, 2}") instanceof ASTList);
+    }
+
+    @Test
+    public void test_evaluate_optimizedExpressions() {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("url", "http://example.com/");
+        params.put("x", 5);
+
+        assertEquals("prefix-xhttp://example.com/", ognlEngine.evaluate("'prefix-' + 'x' + url", params));
+        assertEquals(16, ognlEngine.evaluate("@Math@max(10, 16)", params));
+        assertEquals(17, ognlEngine.evaluate("x + 2 * 6", params));
+        assertEquals("big", ognlEngine.evaluate("2 > 1 ? 'big' : x", params));
+        assertNull(ognlEngine.evaluate("10 / 0", params));
+
+        final Object list = ognlEngine.evaluate("{1, 2}", params);
+        assertNotSame(list, ognlEngine.evaluate("{1, 2}", params));
+    }
+
+    private Node optimize(final String template) throws Exception {
+        final OgnlContext context = ognlEngine.createContext(null);
+        return new ExpressionOptimizer(context).optimize((Node) Ognl.parseExpression(template));
+    }
+
+    // ========================================
+    // Trivial Template Tests
+    // ========================================
+
+    @Test
+    public void test_evaluate_trivialTemplates() throws Exception {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("title", "Fess");
+        params.put("size", "large");
+
+        assertEquals("Fess", ognlEngine.evaluate("title", params));
+        assertEquals("true", ognlEngine.evaluate("'true'", params));
+        assertEquals(1, ognlEngine.evaluate("1", params));
+        assertEquals(3, ognlEngine.evaluate("1 + 2", params));
+        assertNull(ognlEngine.evaluate("missing", params));
+        assertNotNull(ognlEngine.evaluate("container", params));
+
+        assertTrue("title should be trivial", ognlEngine.getExpression("title").isTrivial());
+        assertTrue("'true' should be trivial", ognlEngine.getExpression("'true'").isTrivial());
+        assertTrue("folded constant should be trivial", ognlEngine.getExpression("1 + 2").isTrivial());
+        assertFalse("size is resolved by the map accessor", ognlEngine.getExpression("size").isTrivial());
+        assertFalse("title.length() should not be trivial", ognlEngine.getExpression("title.length()").isTrivial());
+        assertFalse("list literal should not be trivial", ognlEngine.getExpression("{1}").isTrivial());
+    }
+
+    @Test
+    public void test_evaluate_trivialTemplatesWithStats() {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("title", "Fess");
+        ognlEngine.setStatsEnabled(true);
+
+        assertEquals("Fess", ognlEngine.evaluate("title", params));
+        assertEquals(1L, ognlEngine.getTemplateStats().get("title").getCallCount());
+    }
+
+    // ========================================
+    // Typed Evaluation Tests
+    // ========================================
+
+    @Test
+    public void test_evaluateAsDouble() {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("a", 7);
+        params.put("b", 2);
+        params.put("price", 10.5);
+        params.put("count", 3L);
+        params.put("max", Integer.MAX_VALUE);
+        params.put("title", "Fess");
+
+        assertEquals(3.0, ognlEngine.evaluateAsDouble("a / b", params, -1), 0.0);
+        assertEquals(1.0, ognlEngine.evaluateAsDouble("a % b", params, -1), 0.0);
+        assertEquals(31.5, ognlEngine.evaluateAsDouble("price * count", params, -1), 0.0);
+        assertEquals(6.5, ognlEngine.evaluateAsDouble("a / b + price / 3", params, -1), 0.0);
+        assertEquals(Integer.MIN_VALUE, ognlEngine.evaluateAsDouble("max + 1", params, -1), 0.0);
+        assertEquals(-7.0, ognlEngine.evaluateAsDouble("-a", params, -1), 0.0);
+        assertEquals(7.0, ognlEngine.evaluateAsDouble("a > b ? a : b", params, -1), 0.0);
+        assertEquals(1.0, ognlEngine.evaluateAsDouble("a > b", params, -1), 0.0);
+
+        // falls back to regular evaluation
+        assertEquals(4.0, ognlEngine.evaluateAsDouble("title.length()", params, -1), 0.0);
+        assertEquals(-1.0, ognlEngine.evaluateAsDouble("title", params, -1), 0.0);
+        assertEquals(-1.0, ognlEngine.evaluateAsDouble("missing", params, -1), 0.0);
+        assertEquals(-1.0, ognlEngine.evaluateAsDouble("a / 0", params, -1), 0.0);
+        assertEquals(-1.0, ognlEngine.evaluateAsDouble("invalid syntax {{", params, -1), 0.0);
+        assertEquals(-1.0, ognlEngine.evaluateAsDouble("", params, -1), 0.0);
+    }
+
+    @Test
+    public void test_evaluateAsDouble_matchesEvaluate() {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("i", 5);
+        params.put("l", 4_000_000_000L);
+        params.put("d", 0.25);
+        params.put("nan", Double.NaN);
+
+        final String[] templates = { "i * i - 3", "l * 2 + i", "i / 2 * d", "d + i / 2", "-i % 3", "i > 2 && d < 1 ? l : i", "nan > 1",
+                "nan == nan", "i == 5.0", "!(i > 2)" };
+        for (final String template : templates) {
+            final Object expected = ognlEngine.evaluate(template, params);
+            final double actual = ognlEngine.evaluateAsDouble(template, params, Double.MIN_VALUE);
+            assertEquals(template, OgnlOps.doubleValue(expected), actual, 0.0);
+        }
+    }
+
+    @Test
+    public void test_evaluateAsDouble_evaluatesNodesOnce() {
+        final AtomicInteger reads = new AtomicInteger();
+        final Map<String, Object> params = new HashMap<>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Object get(final Object key) {
+                reads.incrementAndGet();
+                return super.get(key);
+            }
+        };
+        params.put("a", 7);
+        params.put("b", 2);
+        params.put("c", 0.5);
+
+        assertEquals(8.0, ognlEngine.evaluateAsDouble("a > b ? a + b * c : c", params, -1), 0.0);
+        assertEquals(3, reads.get());
+        reads.set(0);
+        assertEquals(7, ognlEngine.evaluateAsNumber("b < 1 || a", params));
+        assertEquals(2, reads.get());
+        reads.set(0);
+        assertNull(ognlEngine.evaluateAsNumber("a > b", params));
+        assertEquals(2, reads.get());
+        reads.set(0);
+        assertEquals("8.0", ognlEngine.evaluateAsString("a + c * b", params));
+        assertEquals(3, reads.get());
+    }
+
+    @Test
+    public void test_evaluateAsDouble_resolvesLazyValueOnce() {
+        final AtomicInteger count = new AtomicInteger();
+        final Map<String, Object> params = new HashMap<>();
+        params.put("x", (LazyValue) () -> {
+            count.incrementAndGet();
+            return 3;
+        });
+
+        assertEquals(12.0, ognlEngine.evaluateAsDouble("x * x + x", params, -1), 0.0);
+        assertEquals(1, count.get());
+
+        // falling back to OGNL reuses the value resolved by the primitive path
+        params.put("x", (LazyValue) () -> {
+            count.incrementAndGet();
+            return "3";
+        });
+        count.set(0);
+        assertEquals("31", ognlEngine.evaluateAsString("x + 1", params));
+        assertEquals(1, count.get());
+        count.set(0);
+        assertNull(ognlEngine.evaluateAsNumber("x + 1", params));
+        assertEquals(1, count.get());
+        assertTrue(params.get("x") instanceof LazyValue);
+    }
+
+    @Test
+    public void test_evaluateAsBoolean() {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("score", 0.8);
+        params.put("count", 0);
+        params.put("enabled", true);
+        params.put("title", "Fess");
+
+        assertTrue(ognlEngine.evaluateAsBoolean("score > 0.5 && enabled", params));
+        assertFalse(ognlEngine.evaluateAsBoolean("count", params));
+        assertTrue(ognlEngine.evaluateAsBoolean("count == 0 || score > 1", params));
+        assertTrue(ognlEngine.evaluateAsBoolean("!(count > 0)", params));
+        assertTrue(ognlEngine.evaluateAsBoolean("title == 'Fess'", params));
+        assertFalse(ognlEngine.evaluateAsBoolean("missing", params));
+        assertFalse(ognlEngine.evaluateAsBoolean("invalid syntax {{", params));
+    }
+
+    @Test
+    public void test_evaluateAsNumber() {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("a", 7);
+        params.put("l", 3L);
+        params.put("d", 0.5);
+        params.put("title", "Fess");
+
+        assertEquals(15, ognlEngine.evaluateAsNumber("a * 2 + 1", params));
+        assertEquals(10L, ognlEngine.evaluateAsNumber("a + l", params));
+        assertEquals(7.5, ognlEngine.evaluateAsNumber("a + d", params));
+        assertEquals(4, ognlEngine.evaluateAsNumber("title.length()", params));
+        assertNull(ognlEngine.evaluateAsNumber("a > 1", params));
+        assertNull(ognlEngine.evaluateAsNumber("title", params));
+        assertNull(ognlEngine.evaluateAsNumber("a / 0", params));
+    }
+
+    @Test
+    public void test_evaluateAsString() {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("title", "Fess");
+        params.put("count", 3);
+
+        assertEquals("Fess", ognlEngine.evaluateAsString("title", params));
+        assertEquals("3", ognlEngine.evaluateAsString("count", params));
+        assertEquals("Fess3", ognlEngine.evaluateAsString("title + count", params));
+        assertEquals("true", ognlEngine.evaluateAsString("count > 1", params));
+        assertNull(ognlEngine.evaluateAsString("missing", params));
+        assertNull(ognlEngine.evaluateAsString("", params));
+    }
+
+    @Test
+    public void test_evaluateAsDouble_mapPseudoProperty() {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("a", 1);
+        params.put("b", 2);
+
+        assertEquals(ognlEngine.evaluate("size * 10", params), ognlEngine.evaluateAsNumber("size * 10", params));
+    }
+
+    @Test
+    public void test_evaluateAsDouble_nullParamMap() {
+        try {
+            ognlEngine.evaluateAsDouble("1", null, 0);
+            fail("Should throw NullPointerException");
+        } catch (final NullPointerException e) {
+            // expected
+        }
+    }
+
+    // ========================================
+    // Evaluation Limit Tests
+    // ========================================
+
+    @Test
+    public void test_evaluate_maxEvaluationSteps() {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("title", "Fess");
+        ognlEngine.setMaxEvaluationSteps(4);
+
+        assertEquals(8, ognlEngine.evaluate("title.length() + title.length()", params));
+        assertEquals(0L, ognlEngine.getLimitExceededCount());
+
+        final String template = "title.length() + title.length() + title.length() + title.length() + title.length() + title.length()";
+        assertNull(ognlEngine.evaluate(template, params));
+        assertEquals(1L, ognlEngine.getLimitExceededCount());
+
+        ognlEngine.setMaxEvaluationSteps(0);
+        assertEquals(24, ognlEngine.evaluate(template, params));
+    }
+
+    @Test
+    public void test_evaluate_maxEvaluationSteps_elements() {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("numbers", Arrays.asList(1, 2, 3, 4, 5, 6));
+        ognlEngine.setMaxEvaluationSteps(10);
+
+        assertEquals(Arrays.asList(2, 4, 6, 8, 10, 12), ognlEngine.evaluate("numbers.{#this * 2}", params));
+        assertNull(ognlEngine.evaluate("numbers.{#this * 2}.{#this + 1}", params));
+        assertEquals(5, ognlEngine.evaluate("new int[5].length", params));
+        assertNull(ognlEngine.evaluate("new int[100000000].length", params));
+        params.put("capacity", "100000000");
+        assertNull(ognlEngine.evaluate("new int[capacity].length", params));
+        assertEquals(3L, ognlEngine.getLimitExceededCount());
+
+        ognlEngine.setParallelThreshold(2);
+        params.put("numbers", Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12));
+        assertNull(ognlEngine.evaluate("numbers.{? #this > 6}", params));
+        assertEquals(4L, ognlEngine.getLimitExceededCount());
+    }
+
+    @Test
+    public void test_evaluate_maxEvaluationTime() {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("title", "Fess");
+        ognlEngine.setMaxEvaluationTime(10);
+
+        assertEquals(4, ognlEngine.evaluate("title.length()", params));
+        assertNull(ognlEngine.evaluate("@java.lang.Thread@sleep(50L), title.length()", params));
+        assertEquals(1L, ognlEngine.getLimitExceededCount());
+    }
+
+    @Test
+    public void test_evaluate_stackOverflow() {
+        final Map<String, Object> params = new HashMap<>();
+
+        assertNull(ognlEngine.evaluate("#f = :[#this > 0 ? #f(#this - 1) : 0], #f(10000000)", params));
+        assertEquals(1L, ognlEngine.getLimitExceededCount());
+        assertEquals(3, ognlEngine.evaluate("1 + 2", params));
+    }
+
+    // ========================================
+    // Lazy Value Tests
+    // ========================================
+
+    @Test
+    public void test_evaluate_lazyValue() {
+        final AtomicInteger contentCount = new AtomicInteger();
+        final AtomicInteger htmlCount = new AtomicInteger();
+        final Map<String, Object> params = new HashMap<>();
+        params.put("title", "Fess");
+        params.put("content", LazyValue.of(() -> {
+            contentCount.incrementAndGet();
+            return "Full text content";
+        }));
+        params.put("html", (LazyValue) () -> {
+            htmlCount.incrementAndGet();
+            return "<html></html>";
+        });
+
+        assertEquals("Fess", ognlEngine.evaluate("title", params));
+        assertEquals(0, contentCount.get());
+        assertEquals(0, htmlCount.get());
+
+        assertEquals("Full text content", ognlEngine.evaluate("content", params));
+        assertEquals(17, ognlEngine.evaluate("content.length()", params));
+        assertEquals(Boolean.TRUE, ognlEngine.evaluate("content.startsWith('Full') && content.endsWith('content')", params));
+        assertEquals(1, contentCount.get());
+
+        assertEquals(13, ognlEngine.evaluate("html.length() + html.length() - html.length()", params));
+        assertEquals(1, htmlCount.get());
+        assertEquals(0, ognlEngine.evaluate("html.length() - html.length()", params));
+        assertEquals(2, htmlCount.get());
+
+        // counting the entries does not compute them
+        assertEquals(4, ognlEngine.evaluate("#root.size", params));
+        assertEquals(2, htmlCount.get());
+    }
+
+    @Test
+    public void test_evaluateAsDouble_lazyValue() {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("score", LazyValue.of(() -> 42));
+        params.put("broken", (LazyValue) () -> {
+            throw new IllegalStateException("not available");
+        });
+
+        assertEquals(85.0, ognlEngine.evaluateAsDouble("score * 2 + 1", params, 0), 0.0);
+        assertEquals(-1.0, ognlEngine.evaluateAsDouble("broken + 1", params, -1), 0.0);
+        assertNull(ognlEngine.evaluate("broken", params));
+    }
+
+    // ========================================
+    // Parallel Projection Tests
+    // ========================================
+
+    @Test
+    public void test_evaluate_parallelProjection() throws Exception {
+        final Map<String, Object> params = new HashMap<>();
+        final List<Integer> numbers = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            numbers.add(i);
+        }
+        params.put("numbers", numbers);
+        params.put("limit", 9990);
+        final Object sequential = ognlEngine.evaluate("numbers.{#this * 2}", params);
+
+        ognlEngine.setParallelThreshold(100);
+        assertTrue(ognlEngine.getExpression("numbers.{#this * 2}").getTree().jjtGetChild(1) instanceof ParallelCollectionNode);
+
+        final Object parallel = ognlEngine.evaluate("numbers.{#this * 2}", params);
+        assertEquals(sequential, parallel);
+
+        final List<?> selected = (List<?>) ognlEngine.evaluate("numbers.{? #this >= #root.limit}", params);
+        assertEquals(Arrays.asList(9990, 9991, 9992, 9993, 9994, 9995, 9996, 9997, 9998, 9999), selected);
+
+        final List<?> scaled = (List<?>) ognlEngine.evaluate("#factor = 3, numbers.{#this * #factor}", params);
+        assertEquals(10000, scaled.size());
+        assertEquals(29997, scaled.get(9999));
+
+        // below the threshold
+        assertEquals(Arrays.asList(2, 4), ognlEngine.evaluate("{1, 2}.{#this * 2}", params));
+    }
+
+    @Test
+    public void test_evaluate_parallelProjectionFailure() {
+        final Map<String, Object> params = new HashMap<>();
+        final List<Object> items = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            items.add(i == 500 ? "abc" : "item" + i);
+        }
+        params.put("items", items);
+        ognlEngine.setParallelThreshold(100);
+
+        assertNull(ognlEngine.evaluate("items.{#this.substring(4)}", params));
+        assertEquals(1L, ognlEngine.failureReporter.getFailureCount("items.{#this.substring(4)}"));
+        assertEquals(1000, ((List<?>) ognlEngine.evaluate("items.{#this}", params)).size());
+    }
+
+    @Test
+    public void test_evaluate_parallelProjectionLazyValue() {
+        final AtomicInteger limitCount = new AtomicInteger();
+        final AtomicInteger offsetCount = new AtomicInteger();
+        final Map<String, Object> params = new HashMap<>();
+        final List<Integer> numbers = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            numbers.add(i);
+        }
+        params.put("numbers", numbers);
+        params.put("limit", LazyValue.of(() -> {
+            limitCount.incrementAndGet();
+            return 9995;
+        }));
+        params.put("offset", (LazyValue) () -> {
+            offsetCount.incrementAndGet();
+            return 1;
+        });
+        ognlEngine.setParallelThreshold(100);
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals(Arrays.asList(9995, 9996, 9997, 9998, 9999), ognlEngine.evaluate("numbers.{? #this >= #root.limit}", params));
+            final List<?> shifted = (List<?>) ognlEngine.evaluate("numbers.{#root.last = #this + #root.offset}", params);
+            assertEquals(10000, shifted.size());
+            assertEquals(10000, shifted.get(9999));
+        }
+        assertEquals(1, limitCount.get());
+        // computed at most once per chunk, and only when read
+        assertTrue(offsetCount.get() > 0);
+
+        // entries written by chunks are not seen by the caller
+        assertNull(ognlEngine.evaluate("numbers.{#root.last = #this}, #root.last", params));
+    }
+
+    // ========================================
+    // Fused Pipeline Tests
+    // ========================================
+
+    @Test
+    public void test_evaluate_fusedPipeline() throws Exception {
+        final Map<String, Object> params = new HashMap<>();
+        final List<Integer> numbers = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            numbers.add(i);
+        }
+        params.put("numbers", numbers);
+        params.put("people", Arrays.asList(new TestPerson("Alice", 20), new TestPerson("Bob", 30), new TestPerson("Charlie", 40)));
+
+        assertTrue(ognlEngine.getExpression("people.{? #this.age > 25}.{name}").getTree().jjtGetChild(1) instanceof FusedPipelineNode);
+        assertEquals(Arrays.asList("Bob", "Charlie"), ognlEngine.evaluate("people.{? #this.age > 25}.{name}", params));
+        assertEquals(Arrays.asList(0, 20, 40, 60, 80), ognlEngine.evaluate("numbers.{? #this % 2 == 0}.{#this * 10}", params));
+        assertEquals(20, ognlEngine.evaluate("numbers.{? #this % 2 == 0}.{#this * 10}[1]", params));
+        assertEquals(4, ognlEngine.evaluate("numbers.{? #this > 5}.size()", params));
+        assertEquals(4, ognlEngine.evaluate("numbers.{? #this > 5}.size", params));
+        assertEquals(Boolean.TRUE, ognlEngine.evaluate("30 in numbers.{#this * 10}", params));
+        assertEquals(Boolean.TRUE, ognlEngine.evaluate("35 not in numbers.{#this * 10}", params));
+        assertEquals("Charlie", ognlEngine.evaluate("people.{? #this.age > 25}[1].name", params));
+        assertNull(ognlEngine.evaluate("numbers.{? #this > 5}[4]", params));
+        assertEquals(Arrays.asList(3, 5, 7), ognlEngine.evaluate("#arr = new int[] { 1, 2, 3 }, #arr.{#this * 2}.{#this + 1}", params));
+    }
+
+    @Test
+    public void test_evaluate_fusedPipelineShortCircuit() {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("items", Arrays.asList("ab", "bcd", "", "d"));
+
+        assertEquals("cd", ognlEngine.evaluate("items.{#this.substring(1)}[1]", params));
+        assertEquals(Boolean.TRUE, ognlEngine.evaluate("'cd' in items.{#this.substring(1)}", params));
+        assertNull(ognlEngine.evaluate("items.{#this.substring(1)}", params));
+    }
+
+    @Test
+    public void test_evaluate_fusedPipelineMatchesUnfused() {
+        final Map<String, Object> params = new HashMap<>();
+        final List<Integer> numbers = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            numbers.add(i);
+        }
+        params.put("numbers", numbers);
+        final String[] templates = { "numbers.{? #this % 3 == 0}.{#this * 2}.{? #this > 50}", "numbers.{#this + 1}.{? #this % 7 == 0}[2]",
+                "numbers.{? #this < 10}.{#this * #this}.size()", "81 in numbers.{#this * #this}", "82 in numbers.{#this * #this}" };
+
+        final OgnlEngine unfused = new OgnlEngine();
+        unfused.setOptimizationEnabled(false);
+        for (final String template : templates) {
+            assertEquals(template, unfused.evaluate(template, params), ognlEngine.evaluate(template, params));
+        }
+    }
+
+    // ========================================
+    // Asynchronous Evaluation Tests
+    // ========================================
+
+    @Test
+    public void test_evaluateAsync() throws Exception {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("title", "Fess");
+
+        assertEquals("FESS", ognlEngine.evaluateAsync("title.toUpperCase()", params).get());
+        assertNull(ognlEngine.evaluateAsync("invalid syntax {{", params).get());
+        assertNull(ognlEngine.evaluateAsync("", params).get());
+        assertEquals(Boolean.TRUE, ognlEngine.evaluateAsync("@java.lang.Thread@currentThread().isVirtual()", params).get());
+
+        final List<CompletableFuture<Object>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            final Map<String, Object> rowParams = new HashMap<>();
+            rowParams.put("i", i);
+            futures.add(ognlEngine.evaluateAsync("'row' + i", rowParams));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals("row" + i, futures.get(i).get());
+        }
+    }
+
+    @Test
+    public void test_evaluateAsync_executor() throws Exception {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("errorObj", new Object() {
+            @Override
+            public String toString() {
+                throw new JobProcessingException("Test job processing error");
+            }
+        });
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ognlEngine.setAsyncExecutor(executor);
+            assertEquals(Boolean.FALSE, ognlEngine.evaluateAsync("@java.lang.Thread@currentThread().isVirtual()", params).get());
+            try {
+                ognlEngine.evaluateAsync("errorObj.toString()", params).get();
+                fail("Should throw ExecutionException");
+            } catch (final ExecutionException e) {
+                assertTrue(e.getCause() instanceof JobProcessingException);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // ========================================
+    // Sandbox Tests
+    // ========================================
+
+    @Test
+    public void test_evaluate_sandbox() {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("title", "Fess");
+        params.put("tags", Arrays.asList("a", "b"));
+        params.put("person", new TestPerson("Alice", 20));
+
+        ognlEngine.setSandboxEnabled(true);
+        assertEquals("FESS", ognlEngine.evaluate("title.toUpperCase()", params));
+        assertEquals(2, ognlEngine.evaluate("tags.size()", params));
+        assertEquals(3, ognlEngine.evaluate("@java.lang.Math@max(title.length() - 1, 2)", params));
+        assertEquals(4, ognlEngine.evaluate("new java.lang.StringBuilder(title).length()", params));
+
+        assertNull(ognlEngine.evaluate("person.name", params));
+        assertNull(ognlEngine.evaluate("new java.util.Date()", params));
+        assertNull(ognlEngine.evaluate("title.getClass()", params));
+        assertNull(ognlEngine.evaluate("@java.lang.Runtime@getRuntime()", params));
+        assertNull(ognlEngine.evaluate("@java.lang.System@getProperty('user.home')", params));
+
+        ognlEngine.addAllowedClass(TestPerson.class.getName());
+        ognlEngine.addAllowedPackage("java.lang");
+        assertEquals("Alice", ognlEngine.evaluate("person.name", params));
+        assertNull(ognlEngine.evaluate("@java.lang.System@getProperty('user.home')", params));
+        assertNull(ognlEngine.evaluate("@java.lang.Thread@currentThread()", params));
+
+        ognlEngine.setSandboxEnabled(false);
+        assertNotNull(ognlEngine.evaluate("new java.util.Date()", params));
+    }
+
+    @Test
+    public void test_allowListMemberAccess_decisions() throws Exception {
+        final AllowListMemberAccess access = new AllowListMemberAccess(Collections.emptyList(), List.of("org.example"));
+        final AllowListMemberAccess objectAccess = new AllowListMemberAccess(List.of("java.lang.Object"), Collections.emptyList());
+        assertFalse(objectAccess.isPermitted("a", Object.class.getMethod("getClass")));
+        assertFalse(objectAccess.isPermitted("a", Object.class.getMethod("notify")));
+
+        assertTrue(access.isPermitted("a", String.class.getMethod("length")));
+        assertTrue(access.isPermitted(new StringBuilder(), StringBuilder.class.getMethod("length")));
+        assertTrue(access.isPermitted(List.of(1), List.of(1).getClass().getMethod("size")));
+        assertFalse(access.isPermitted("a", Object.class.getMethod("getClass")));
+        assertTrue(access.isPermitted(new Date(), Object.class.getMethod("hashCode")));
+        assertTrue(access.isPermitted(new Date(), Date.class.getMethod("toString")));
+        assertFalse(access.isPermitted(new Date(), Date.class.getMethod("getTime")));
+        assertFalse(access.isPermitted(null, System.class.getMethod("currentTimeMillis")));
+        assertFalse(access.isPermitted(null, Date.class.getConstructor()));
+        // decisions are cached per member
+        assertTrue(access.isPermitted("b", String.class.getMethod("length")));
+    }
+
+    // ========================================
+    // Template Analysis Tests
+    // ========================================
+
+    @Test
+    public void test_analyze() {
+        TemplateAnalysis analysis = ognlEngine.analyze("title.length() > 3 ? title.substring(0, limit) : url");
+        assertEquals(new LinkedHashSet<>(Arrays.asList("title", "limit", "url")), analysis.getVariableNames());
+        assertTrue(analysis.isComplete());
+
+        analysis = ognlEngine.analyze("people.{? #this.age > minAge}.{name}");
+        assertEquals(new LinkedHashSet<>(Arrays.asList("people")), analysis.getVariableNames());
+        assertTrue(analysis.isComplete());
+
+        analysis = ognlEngine.analyze("people.{? #this.age > #root.minAge}");
+        assertTrue(analysis.getVariableNames().containsAll(Arrays.asList("people", "minAge")));
+
+        analysis = ognlEngine.analyze("container.getComponent('systemHelper').getCurrentTime() + @java.lang.Math@abs(offset)");
+        assertEquals(Set.of("offset"), analysis.getVariableNames());
+        assertEquals(Set.of("systemHelper"), analysis.getComponentNames());
+        assertEquals(Set.of("java.lang.Math"), analysis.getStaticClassNames());
+        assertEquals(Set.of("java.lang.Math.abs"), analysis.getStaticMethodNames());
+
+        analysis = ognlEngine.analyze("@org.codelibs.fess.util.ComponentUtil@getComponent('fessConfig')");
+        assertEquals(Set.of("fessConfig"), analysis.getComponentNames());
+
+        analysis = ognlEngine.analyze("new java.util.ArrayList(items)");
+        assertEquals(Set.of("items"), analysis.getVariableNames());
+        assertEquals(Set.of("java.util.ArrayList"), analysis.getStaticClassNames());
+
+        analysis = ognlEngine.analyze("data['title'] + #root['url']");
+        assertEquals(new LinkedHashSet<>(Arrays.asList("data", "url")), analysis.getVariableNames());
+        assertTrue(analysis.isComplete());
+
+        assertFalse(ognlEngine.analyze("#root[key]").isComplete());
+        assertFalse(ognlEngine.analyze("#root").isComplete());
+        assertFalse(ognlEngine.analyze("containsKey('title')").isComplete());
+        assertFalse(ognlEngine.analyze("size").isComplete());
+
+        assertNull(ognlEngine.analyze("invalid syntax {{"));
+        assertNull(ognlEngine.analyze(""));
+    }
+
+    @Test
+    public void test_analyze_prunedParamMap() {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("title", "Fess Search");
+        params.put("limit", 4);
+        params.put("content", "unused");
+        final String template = "title.length() > 3 ? title.substring(0, limit) : ''";
+
+        final TemplateAnalysis analysis = ognlEngine.analyze(template);
+        final Map<String, Object> pruned = new HashMap<>(params);
+        pruned.keySet().retainAll(analysis.getVariableNames());
+
+        assertEquals(2, pruned.size());
+        assertEquals(ognlEngine.evaluate(template, params), ognlEngine.evaluate(template, pruned));
+    }
+
     // ========================================
     // getName() Test
     // ========================================